@@ -26,9 +26,22 @@ import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -56,6 +69,82 @@ import org.slf4j.LoggerFactory;
  * The Username and Password represent the credentials of the user that the SQL
  * queries should be made on behalf of.
  *
+ * The adapter also defines three optional startup properties:
+ *  - Startup Mode
+ *  - Connection Timeout
+ *  - Warm Up Queries
+ *
+ * The Startup Mode is either "Blocking" (the default) or "Asynchronous".  In
+ * both modes the adapter class and connection string are validated during
+ * initialization.  In Blocking mode initialization then waits for the
+ * database connection to be verified and warmed up, while in Asynchronous
+ * mode this happens in the background and {@link #isReady()} reports when it
+ * has completed.
+ *
+ * The Connection Timeout is the number of seconds (default 30, minimum 1) to
+ * wait for the verification connection to be established.
+ *
+ * The Warm Up Queries are newline separated query shapes (which may contain
+ * parameter references) that are prepared once the connection is verified so
+ * that the driver and database have parsed them before the first request.  The
+ * warm up also opens up to the Max Idle Connections so that the first requests
+ * reuse them rather than connecting.
+ *
+ * The adapter can also route requests to additional named datasources using
+ * the optional properties:
+ *  - Dialect
+ *  - Max Idle Connections
+ *  - Max Active Connections
+ *  - Datasources
+ *  - Structure Mappings
+ *  - Datasource Idle Timeout
+ *
+ * The Dialect is the name of the {@link SqlDialect} used for the primary
+ * datasource (Default, PostgreSQL, MySQL or ANSI) and the Max Idle Connections
+ * is the number of released connections each datasource keeps open for reuse
+ * (default 0, which closes connections after every request).  The Max Active
+ * Connections is the number of connections each datasource hands out at once
+ * (default 0, which is unlimited).  When they are all in use, requests wait up
+ * to the Connection Timeout for one to be released.
+ *
+ * The Datasources property defines the additional datasources as key=value
+ * lines, keyed by datasource name.  For example:
+ *  hr.connectionString=jdbc:postgresql://SERVER:PORT/hr
+ *  hr.username=USERNAME
+ *  hr.password=PASSWORD
+ *  hr.dialect=PostgreSQL
+ * The adapterClass (defaulting to the primary Adapter Class),
+ * maxIdleConnections (defaulting to the Max Idle Connections) and
+ * maxActiveConnections (defaulting to the Max Active Connections) may also be
+ * specified.  Each line is split on its first '=' and the key and value are
+ * trimmed, blank lines and lines starting with '#' or '!' are ignored, and
+ * backslashes are kept as-is (so "jdbc:sqlserver://SERVER\INSTANCE" and
+ * passwords containing backslashes do not need to be escaped).  The Structure
+ * Mappings property uses the same format.
+ *
+ * A request is routed to a datasource when its structure is prefixed with the
+ * datasource name (for example "hr:employees"), or when the structure is mapped
+ * to the datasource in the Structure Mappings property (for example
+ * "employees=hr").  All other requests use the primary datasource.  Additional
+ * datasources are created when they are first used and are closed after they
+ * have not been used for the Datasource Idle Timeout (default 300 seconds).
+ *
+ * Expensive queries can be guarded against using the optional properties:
+ *  - Query Guard
+ *  - Query Guard Max Full Scan Rows
+ *  - Query Guard Throttle Concurrency
+ *  - Query Guard Throttle Timeout
+ *
+ * The Query Guard is either "Disabled" (the default), "Reject" or "Throttle".
+ * When enabled, the first time each statement shape (the SQL with numbers and
+ * extra whitespace normalized) is run against a datasource its plan is
+ * estimated using the datasource dialect's EXPLAIN (currently PostgreSQL and
+ * MySQL).  Shapes that are estimated to fully scan a table of more than the
+ * Query Guard Max Full Scan Rows are then either rejected, or are throttled so
+ * that no more than the Query Guard Throttle Concurrency (default 1) of them
+ * run at the same time.  A throttled query fails if it has waited the Query
+ * Guard Throttle Timeout (default 60 seconds, minimum 1) for its turn.
+ *
  *
  * This class can be extended in order to provide more specific property
  * definitions.  For example:
@@ -126,13 +215,86 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
         public static final String PASSWORD = "Password";
         public static final String ADAPTER_CLASS = "Adapter Class";
         public static final String CONNECTION_STRING = "Connection String";
+        public static final String STARTUP_MODE = "Startup Mode";
+        public static final String CONNECTION_TIMEOUT = "Connection Timeout";
+        public static final String WARM_UP_QUERIES = "Warm Up Queries";
+        public static final String DIALECT = "Dialect";
+        public static final String MAX_IDLE_CONNECTIONS = "Max Idle Connections";
+        public static final String MAX_ACTIVE_CONNECTIONS = "Max Active Connections";
+        public static final String DATASOURCES = "Datasources";
+        public static final String STRUCTURE_MAPPINGS = "Structure Mappings";
+        public static final String DATASOURCE_IDLE_TIMEOUT = "Datasource Idle Timeout";
+        public static final String QUERY_GUARD = "Query Guard";
+        public static final String QUERY_GUARD_MAX_FULL_SCAN_ROWS = "Query Guard Max Full Scan Rows";
+        public static final String QUERY_GUARD_THROTTLE_CONCURRENCY = "Query Guard Throttle Concurrency";
+        public static final String QUERY_GUARD_THROTTLE_TIMEOUT = "Query Guard Throttle Timeout";
     }
 
+    /** Defines the supported query guard modes. */
+    public static class QueryGuardModes {
+        public static final String DISABLED = "Disabled";
+        public static final String REJECT = "Reject";
+        public static final String THROTTLE = "Throttle";
+    }
+
+    /** Defines the attributes that can be configured for each datasource. */
+    public static class DatasourceAttributes {
+        public static final String ADAPTER_CLASS = "adapterClass";
+        public static final String CONNECTION_STRING = "connectionString";
+        public static final String USERNAME = "username";
+        public static final String PASSWORD = "password";
+        public static final String DIALECT = "dialect";
+        public static final String MAX_IDLE_CONNECTIONS = "maxIdleConnections";
+        public static final String MAX_ACTIVE_CONNECTIONS = "maxActiveConnections";
+    }
+
+    /** Defines the supported startup modes. */
+    public static class StartupModes {
+        public static final String BLOCKING = "Blocking";
+        public static final String ASYNCHRONOUS = "Asynchronous";
+    }
+
+    /** Defines the default number of seconds to wait for a connection. */
+    public static final int DEFAULT_CONNECTION_TIMEOUT = 30;
+
+    /** Defines the delays (in milliseconds) between background warm up attempts. */
+    public static final long INITIAL_WARM_UP_RETRY_DELAY = 1000;
+    public static final long MAX_WARM_UP_RETRY_DELAY = 60000;
+
+    /** Defines the default number of seconds an unused datasource is kept. */
+    public static final int DEFAULT_DATASOURCE_IDLE_TIMEOUT = 300;
+
+    /** Defines the minimum milliseconds between checks for idle datasources. */
+    public static final long DATASOURCE_EVICTION_INTERVAL = 1000;
+
+    /** Defines the default number of seconds to wait for a throttled query slot. */
+    public static final int DEFAULT_QUERY_GUARD_THROTTLE_TIMEOUT = 60;
+
+    /** Defines the name of the datasource configured by the main properties. */
+    public static final String PRIMARY_DATASOURCE = "primary";
+
+    /** Used to normalize the statement shapes that are cached by the query guard. */
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("\\b\\d+\\b");
+
     private final ConfigurablePropertyMap properties = new ConfigurablePropertyMap(
             new ConfigurableProperty(Properties.USERNAME).setIsRequired(true),
             new ConfigurableProperty(Properties.PASSWORD).setIsRequired(true).setIsSensitive(true),
             new ConfigurableProperty(Properties.ADAPTER_CLASS).setIsRequired(true),
-            new ConfigurableProperty(Properties.CONNECTION_STRING).setIsRequired(true)
+            new ConfigurableProperty(Properties.CONNECTION_STRING).setIsRequired(true),
+            new ConfigurableProperty(Properties.STARTUP_MODE),
+            new ConfigurableProperty(Properties.CONNECTION_TIMEOUT),
+            new ConfigurableProperty(Properties.WARM_UP_QUERIES),
+            new ConfigurableProperty(Properties.DIALECT),
+            new ConfigurableProperty(Properties.MAX_IDLE_CONNECTIONS),
+            new ConfigurableProperty(Properties.MAX_ACTIVE_CONNECTIONS),
+            new ConfigurableProperty(Properties.DATASOURCES).setIsSensitive(true),
+            new ConfigurableProperty(Properties.STRUCTURE_MAPPINGS),
+            new ConfigurableProperty(Properties.DATASOURCE_IDLE_TIMEOUT),
+            new ConfigurableProperty(Properties.QUERY_GUARD),
+            new ConfigurableProperty(Properties.QUERY_GUARD_MAX_FULL_SCAN_ROWS),
+            new ConfigurableProperty(Properties.QUERY_GUARD_THROTTLE_CONCURRENCY),
+            new ConfigurableProperty(Properties.QUERY_GUARD_THROTTLE_TIMEOUT)
     );
 
     /** Defines the variables to be used in the adapter **/
@@ -154,11 +316,103 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
      * behalf of.
      */
     private String password;
+    /**
+     * Whether initialization waits for the connection to be verified and
+     * warmed up, or leaves that to a background thread.
+     */
+    private String startupMode = StartupModes.BLOCKING;
+    /**
+     * The number of seconds to wait for the verification connection.
+     */
+    private int connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+    /**
+     * Query shapes that are prepared once the connection has been verified.
+     */
+    private List<String> warmUpQueries = new ArrayList<String>();
+    /**
+     * Executes the connection verification and warm up off of the calling
+     * thread so that they can be bounded by the connection timeout.
+     */
+    private volatile ExecutorService executor;
+    /**
+     * Guards replacing the executor and marking the adapter as ready, so that
+     * a warm up started for a previous configuration can not mark the current
+     * configuration as ready.
+     */
+    private final Object startupLock = new Object();
+    /**
+     * Set once the connection has been verified and the warm up has completed.
+     */
+    private volatile boolean ready = false;
+    /**
+     * The dialect of the primary datasource.
+     */
+    private SqlDialect dialect = SqlDialect.DEFAULT;
+    /**
+     * The default number of released connections each datasource keeps open.
+     */
+    private int maxIdleConnections = 0;
+    /**
+     * The default number of connections each datasource hands out at once (0
+     * for unlimited).
+     */
+    private int maxActiveConnections = 0;
+    /**
+     * The datasource configured by the main properties.
+     */
+    private SqlDatasource primaryDatasource;
+    /**
+     * The attributes of each additional datasource, keyed by datasource name.
+     */
+    private Map<String,Map<String,String>> datasourceConfigurations = new HashMap<String,Map<String,String>>();
+    /**
+     * The name of the datasource each mapped structure is routed to.
+     */
+    private Map<String,String> structureMappings = new HashMap<String,String>();
+    /**
+     * The number of seconds an unused additional datasource is kept.
+     */
+    private int datasourceIdleTimeout = DEFAULT_DATASOURCE_IDLE_TIMEOUT;
+    /**
+     * The additional datasources that have been created, keyed by name.
+     */
+    private final ConcurrentHashMap<String,SqlDatasource> datasources = new ConcurrentHashMap<String,SqlDatasource>();
+    /**
+     * The last time the additional datasources were checked for eviction.
+     */
+    private volatile long lastEviction = 0;
+    /**
+     * Whether a subclass overrides the deprecated buildPaginatedStatement hook,
+     * in which case search requests still use it to build their statements.
+     */
+    private final boolean overridesBuildPaginatedStatement = overridesBuildPaginatedStatement(getClass());
+    /**
+     * Whether statements estimated to be expensive are rejected or throttled.
+     */
+    private String queryGuardMode = QueryGuardModes.DISABLED;
+    /**
+     * The largest full table scan (in estimated rows) that is run normally.
+     */
+    private int queryGuardMaxFullScanRows;
+    /**
+     * Limits how many statements estimated to be expensive run at once.
+     */
+    private volatile Semaphore throttledQueries = new Semaphore(1, true);
+    /**
+     * The number of seconds to wait for a throttled query slot.
+     */
+    private int queryGuardThrottleTimeout = DEFAULT_QUERY_GUARD_THROTTLE_TIMEOUT;
 
     private static final List<Integer> BLOB_TYPES = Arrays.asList(
         Types.BLOB, Types.CLOB, Types.NCLOB
     );
 
+    /**
+     * Set while a search runs its count query, so that the count duration is
+     * only logged as part of the search.
+     */
+    private static final ThreadLocal<Boolean> SEARCH_COUNT = new ThreadLocal<Boolean>();
+
     /*---------------------------------------------------------------------------------------------
      * SETUP METHODS
      *-------------------------------------------------------------------------------------------*/
@@ -184,6 +438,94 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
 
     @Override
     public void initialize() throws BridgeError {
+        // Configure the optional startup properties
+        startupMode = StartupModes.BLOCKING;
+        if (StringUtils.isNotBlank(properties.getValue(Properties.STARTUP_MODE))) {
+            startupMode = properties.getValue(Properties.STARTUP_MODE).trim();
+            if (!StartupModes.BLOCKING.equals(startupMode) && !StartupModes.ASYNCHRONOUS.equals(startupMode)) {
+                throw new BridgeError("Invalid "+Properties.STARTUP_MODE+" '"+startupMode+"', "+
+                    "expected '"+StartupModes.BLOCKING+"' or '"+StartupModes.ASYNCHRONOUS+"'.");
+            }
+        }
+        connectionTimeout = parseInteger(Properties.CONNECTION_TIMEOUT,
+            properties.getValue(Properties.CONNECTION_TIMEOUT), DEFAULT_CONNECTION_TIMEOUT, 1);
+        warmUpQueries = new ArrayList<String>();
+        if (StringUtils.isNotBlank(properties.getValue(Properties.WARM_UP_QUERIES))) {
+            for (String query : properties.getValue(Properties.WARM_UP_QUERIES).split("\\r?\\n")) {
+                if (StringUtils.isNotBlank(query)) {
+                    warmUpQueries.add(query.trim());
+                }
+            }
+        }
+
+        // Configure the datasource properties
+        dialect = SqlDialect.getDialect(properties.getValue(Properties.DIALECT));
+        maxIdleConnections = parseInteger(Properties.MAX_IDLE_CONNECTIONS,
+            properties.getValue(Properties.MAX_IDLE_CONNECTIONS), 0);
+        maxActiveConnections = parseInteger(Properties.MAX_ACTIVE_CONNECTIONS,
+            properties.getValue(Properties.MAX_ACTIVE_CONNECTIONS), 0);
+        datasourceIdleTimeout = parseInteger(Properties.DATASOURCE_IDLE_TIMEOUT,
+            properties.getValue(Properties.DATASOURCE_IDLE_TIMEOUT), DEFAULT_DATASOURCE_IDLE_TIMEOUT);
+        datasourceConfigurations = parseDatasourceConfigurations(properties.getValue(Properties.DATASOURCES));
+        structureMappings = new HashMap<String,String>();
+        for (Map.Entry<String,String> mapping : parsePropertiesValue(Properties.STRUCTURE_MAPPINGS,
+            properties.getValue(Properties.STRUCTURE_MAPPINGS)).entrySet()
+        ) {
+            if (!datasourceConfigurations.containsKey(mapping.getValue())) {
+                throw new BridgeError("The "+Properties.STRUCTURE_MAPPINGS+" map the '"+
+                    mapping.getKey()+"' structure to the '"+mapping.getValue()+
+                    "' datasource, which is not defined in the "+Properties.DATASOURCES+".");
+            }
+            structureMappings.put(mapping.getKey(), mapping.getValue());
+        }
+
+        // Configure the query guard properties
+        queryGuardMode = QueryGuardModes.DISABLED;
+        if (StringUtils.isNotBlank(properties.getValue(Properties.QUERY_GUARD))) {
+            queryGuardMode = properties.getValue(Properties.QUERY_GUARD).trim();
+            if (!QueryGuardModes.DISABLED.equals(queryGuardMode)
+                && !QueryGuardModes.REJECT.equals(queryGuardMode)
+                && !QueryGuardModes.THROTTLE.equals(queryGuardMode)
+            ) {
+                throw new BridgeError("Invalid "+Properties.QUERY_GUARD+" '"+queryGuardMode+"', expected '"+
+                    QueryGuardModes.DISABLED+"', '"+QueryGuardModes.REJECT+"' or '"+QueryGuardModes.THROTTLE+"'.");
+            }
+        }
+        if (!QueryGuardModes.DISABLED.equals(queryGuardMode)
+            && StringUtils.isBlank(properties.getValue(Properties.QUERY_GUARD_MAX_FULL_SCAN_ROWS))
+        ) {
+            throw new BridgeError("The "+Properties.QUERY_GUARD_MAX_FULL_SCAN_ROWS+
+                " property is required when the "+Properties.QUERY_GUARD+" is enabled.");
+        }
+        queryGuardMaxFullScanRows = parseInteger(Properties.QUERY_GUARD_MAX_FULL_SCAN_ROWS,
+            properties.getValue(Properties.QUERY_GUARD_MAX_FULL_SCAN_ROWS), 0);
+        throttledQueries = new Semaphore(Math.max(1, parseInteger(Properties.QUERY_GUARD_THROTTLE_CONCURRENCY,
+            properties.getValue(Properties.QUERY_GUARD_THROTTLE_CONCURRENCY), 1)), true);
+        queryGuardThrottleTimeout = parseInteger(Properties.QUERY_GUARD_THROTTLE_TIMEOUT,
+            properties.getValue(Properties.QUERY_GUARD_THROTTLE_TIMEOUT), DEFAULT_QUERY_GUARD_THROTTLE_TIMEOUT, 1);
+        if (!QueryGuardModes.DISABLED.equals(queryGuardMode)) {
+            // The guard can only check datasources whose dialect estimates costs
+            if (!dialect.supportsEstimates()) {
+                logger.warn("The "+Properties.QUERY_GUARD+" is enabled, but the "+PRIMARY_DATASOURCE+
+                    " datasource uses the "+dialect.getName()+" dialect, which does not support "+
+                    "estimates, so its queries will not be checked.");
+            }
+            for (Map.Entry<String,Map<String,String>> entry : datasourceConfigurations.entrySet()) {
+                SqlDialect datasourceDialect = SqlDialect.getDialect(
+                    entry.getValue().get(DatasourceAttributes.DIALECT));
+                if (!datasourceDialect.supportsEstimates()) {
+                    logger.warn("The "+Properties.QUERY_GUARD+" is enabled, but the "+entry.getKey()+
+                        " datasource uses the "+datasourceDialect.getName()+" dialect, which does not "+
+                        "support estimates, so its queries will not be checked.");
+                }
+            }
+        }
+
+        if (overridesBuildPaginatedStatement && !QueryGuardModes.DISABLED.equals(queryGuardMode)) {
+            logger.warn(getClass().getName()+" overrides the deprecated buildPaginatedStatement "+
+                "method, so the "+Properties.QUERY_GUARD+" does not apply to its search requests.");
+        }
+
         initalize (
                 properties.getValue(Properties.ADAPTER_CLASS),
                 properties.getValue(Properties.CONNECTION_STRING),
@@ -204,11 +546,543 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
             // Register the class
             logger.info("Registering: " +adapterClass);
             Class.forName(adapterClass);
-            // Verify the connection
-            DriverManager.getConnection(connectionString, username, password);
         } catch (Exception e) {
             throw new BridgeError("Unable to intialize the "+adapterClass+" adapter class.", e);
         }
+        // Validate that the registered driver accepts the connection string
+        // (this does not open a connection)
+        try {
+            DriverManager.getDriver(connectionString);
+        } catch (SQLException e) {
+            throw new BridgeError("The "+adapterClass+" adapter class does not "+
+                "accept the connection string "+connectionString+".", e);
+        }
+
+        // Build the primary datasource (closing any previously built ones)
+        closeDatasources();
+        primaryDatasource = new SqlDatasource(PRIMARY_DATASOURCE, connectionString,
+            username, password, dialect, maxIdleConnections, maxActiveConnections, connectionTimeout);
+
+        // Verify the connection and warm up off of the calling thread
+        final ExecutorService startupExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SqlAdapter-startup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        synchronized (startupLock) {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            ready = false;
+            executor = startupExecutor;
+        }
+
+        // Capture the configuration being warmed up, so that a re-initialization
+        // does not change it part way through
+        final SqlDatasource datasource = primaryDatasource;
+        final List<String> queries = warmUpQueries;
+        final int timeout = connectionTimeout;
+        if (StartupModes.ASYNCHRONOUS.equals(startupMode)) {
+            logger.info("Verifying the "+adapterClass+" connection in the background.");
+            startupExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    warmUpInBackground(startupExecutor, datasource, queries, timeout);
+                }
+            });
+        } else {
+            Future<Void> warmUp = startupExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws BridgeError {
+                    warmUp(startupExecutor, datasource, queries, timeout);
+                    return null;
+                }
+            });
+            try {
+                warmUp.get();
+            } catch (InterruptedException e) {
+                warmUp.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new BridgeError("Interrupted while verifying the "+adapterClass+" connection.", e);
+            } catch (ExecutionException e) {
+                throw new BridgeError("Unable to intialize the "+adapterClass+" adapter class.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Repeats the warm up until it succeeds, logging each failure and backing
+     * off exponentially between attempts, until the adapter is destroyed or
+     * re-initialized (which shuts down the executor).
+     */
+    private void warmUpInBackground(ExecutorService startupExecutor, SqlDatasource datasource,
+        List<String> queries, int timeout
+    ) {
+        long delay = INITIAL_WARM_UP_RETRY_DELAY;
+        while (!ready && !startupExecutor.isShutdown()) {
+            try {
+                warmUp(startupExecutor, datasource, queries, timeout);
+            } catch (Exception e) {
+                if (startupExecutor.isShutdown()) {
+                    return;
+                }
+                logger.error("Unable to verify the "+adapterClass+" connection, "+
+                    "retrying in "+delay+"ms.", e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                delay = Math.min(delay*2, MAX_WARM_UP_RETRY_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Returns true once the database connection has been verified and the
+     * configured warm up queries have been prepared.  This is not part of the
+     * BridgeAdapter interface, so readiness is also logged at the info level
+     * (and background failures at the error level) for the bridgehub logs.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Verifies that a connection to the datasource can be established within
+     * the timeout and prepares each of the warm up queries so that the driver
+     * initialization, connection handshake and statement parsing costs are not
+     * paid by the first requests.  Up to the datasource's maxIdleConnections
+     * are then left open in its idle pool.
+     *
+     * The adapter is only marked as ready if the startup executor is still the
+     * current one, which it is not if the adapter has since been re-initialized
+     * or destroyed.
+     */
+    protected void warmUp(ExecutorService startupExecutor, SqlDatasource datasource,
+        List<String> queries, int timeout
+    ) throws BridgeError {
+        long startTime = System.currentTimeMillis();
+        List<Connection> connections = new ArrayList<Connection>();
+        Connection connection = openConnection(startupExecutor, datasource, timeout);
+        connections.add(connection);
+        try {
+            for (String query : queries) {
+                PreparedStatement statement = null;
+                try {
+                    SqlQualification qualification = SqlQualificationParser.parse(
+                        query, datasource.getDialect().hasBackslashEscapes());
+                    logger.debug("Preparing Warm Up Query");
+                    logger.debug("  "+qualification.getParameterizedString());
+                    statement = connection.prepareStatement(qualification.getParameterizedString());
+                    // Retrieving the metadata forces most drivers to describe
+                    // the statement with the database
+                    statement.getMetaData();
+                } catch (BridgeError e) {
+                    logger.warn("Unable to parse the warm up query: "+query, e);
+                } catch (SQLException e) {
+                    logger.warn("Unable to prepare the warm up query: "+query, e);
+                } finally {
+                    closeResource(statement);
+                }
+            }
+            // Hold each connection until all of them are open, otherwise the
+            // datasource would hand the same idle connection back each time
+            int poolSize = datasource.getMaxIdleConnections();
+            if (datasource.getMaxActiveConnections() > 0) {
+                poolSize = Math.min(poolSize, datasource.getMaxActiveConnections());
+            }
+            while (connections.size() < poolSize) {
+                try {
+                    connections.add(openConnection(startupExecutor, datasource, timeout));
+                } catch (BridgeError e) {
+                    logger.warn("Unable to open an idle connection to the "+
+                        datasource.getName()+" datasource.", e);
+                    break;
+                }
+            }
+        } finally {
+            // Keep the connections open for the first requests if the idle pool
+            // allows it
+            for (Connection openedConnection : connections) {
+                datasource.releaseConnection(openedConnection);
+            }
+        }
+        synchronized (startupLock) {
+            if (executor != startupExecutor || startupExecutor.isShutdown()) {
+                return;
+            }
+            ready = true;
+        }
+        logger.info("The "+adapterClass+" connection is ready ("+
+            (System.currentTimeMillis()-startTime)+"ms, "+connections.size()+" connections).");
+    }
+
+    /**
+     * Opens a connection to the datasource using the startup executor, giving
+     * up if it can not be established within the specified number of seconds.
+     * If the attempt times out, the connection is released to the datasource
+     * whenever the driver eventually returns it.
+     */
+    protected Connection openConnection(ExecutorService startupExecutor, final SqlDatasource datasource,
+        int timeout
+    ) throws BridgeError {
+        String connectionString = datasource.getConnectionString();
+        Future<Connection> future = startupExecutor.submit(new Callable<Connection>() {
+            @Override
+            public Connection call() throws SQLException {
+                Connection connection = datasource.getConnection();
+                // If the attempt was abandoned, do not leak the connection
+                // (or its max active connections slot)
+                if (Thread.currentThread().isInterrupted()) {
+                    datasource.releaseConnection(connection);
+                    connection = null;
+                }
+                return connection;
+            }
+        });
+        try {
+            return future.get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new BridgeError("Unable to connect to "+connectionString+
+                " within "+timeout+" seconds.", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while connecting to "+connectionString+".", e);
+        } catch (ExecutionException e) {
+            throw new BridgeError("Unable to connect to "+connectionString+".", e.getCause());
+        }
+    }
+
+    /**
+     * Parses the Datasources property value into the attributes of each
+     * datasource, keyed by datasource name.
+     */
+    private Map<String,Map<String,String>> parseDatasourceConfigurations(String value) throws BridgeError {
+        Map<String,Map<String,String>> configurations = new HashMap<String,Map<String,String>>();
+        List<String> validAttributes = Arrays.asList(
+            DatasourceAttributes.ADAPTER_CLASS, DatasourceAttributes.CONNECTION_STRING,
+            DatasourceAttributes.USERNAME, DatasourceAttributes.PASSWORD,
+            DatasourceAttributes.DIALECT, DatasourceAttributes.MAX_IDLE_CONNECTIONS,
+            DatasourceAttributes.MAX_ACTIVE_CONNECTIONS);
+        for (Map.Entry<String,String> entry : parsePropertiesValue(Properties.DATASOURCES, value).entrySet()) {
+            // Split the key into the datasource name and attribute
+            int index = entry.getKey().lastIndexOf('.');
+            String name = (index > 0) ? entry.getKey().substring(0, index) : null;
+            String attribute = (index > 0) ? entry.getKey().substring(index+1) : null;
+            if (name == null || !validAttributes.contains(attribute)) {
+                throw new BridgeError("Invalid "+Properties.DATASOURCES+" key '"+entry.getKey()+
+                    "', expected NAME.ATTRIBUTE where ATTRIBUTE is one of: "+
+                    StringUtils.join(validAttributes, ", ")+".");
+            }
+            if (PRIMARY_DATASOURCE.equals(name)) {
+                throw new BridgeError("The '"+PRIMARY_DATASOURCE+"' datasource name is reserved.");
+            }
+            Map<String,String> configuration = configurations.get(name);
+            if (configuration == null) {
+                configuration = new HashMap<String,String>();
+                configurations.put(name, configuration);
+            }
+            configuration.put(attribute, entry.getValue());
+        }
+        // Validate each of the datasources
+        for (Map.Entry<String,Map<String,String>> entry : configurations.entrySet()) {
+            Map<String,String> configuration = entry.getValue();
+            if (StringUtils.isBlank(configuration.get(DatasourceAttributes.CONNECTION_STRING))) {
+                throw new BridgeError("The "+entry.getKey()+" datasource does not specify a "+
+                    DatasourceAttributes.CONNECTION_STRING+".");
+            }
+            SqlDialect.getDialect(configuration.get(DatasourceAttributes.DIALECT));
+            parseInteger(entry.getKey()+"."+DatasourceAttributes.MAX_IDLE_CONNECTIONS,
+                configuration.get(DatasourceAttributes.MAX_IDLE_CONNECTIONS), 0);
+            parseInteger(entry.getKey()+"."+DatasourceAttributes.MAX_ACTIVE_CONNECTIONS,
+                configuration.get(DatasourceAttributes.MAX_ACTIVE_CONNECTIONS), 0);
+        }
+        return configurations;
+    }
+
+    /**
+     * Parses a property value made up of key=value lines.  Each line is split
+     * on its first '=' and the key and value are trimmed.  Blank lines and
+     * lines starting with '#' or '!' are ignored, and backslashes have no
+     * special meaning (unlike the java.util.Properties format, which would
+     * drop them from connection strings and passwords).
+     */
+    private Map<String,String> parsePropertiesValue(String property, String value) throws BridgeError {
+        Map<String,String> result = new LinkedHashMap<String,String>();
+        if (StringUtils.isNotBlank(value)) {
+            String[] lines = value.split("\\r?\\n");
+            for (int i = 0; i < lines.length; i++) {
+                String line = lines[i].trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("!")) {
+                    continue;
+                }
+                int separator = line.indexOf('=');
+                if (separator < 1) {
+                    throw new BridgeError("Unable to parse the "+property+" property, "+
+                        "expected line "+(i+1)+" to be of the form key=value.");
+                }
+                result.put(line.substring(0, separator).trim(), line.substring(separator+1).trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses a non-negative integer property value, returning the default
+     * value if the property value is blank.
+     */
+    private int parseInteger(String property, String value, int defaultValue) throws BridgeError {
+        return parseInteger(property, value, defaultValue, 0);
+    }
+
+    /**
+     * Parses an integer property value that must be at least the minimum,
+     * returning the default value if the property value is blank.
+     */
+    private int parseInteger(String property, String value, int defaultValue, int minimum) throws BridgeError {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value.trim());
+            if (result < minimum) {
+                throw new NumberFormatException("Value below "+minimum+": "+result);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new BridgeError("Invalid "+property+" '"+value+"', expected "+
+                (minimum == 0 ? "a non-negative number" : "a number of "+minimum+" or more")+".", e);
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * DATASOURCE METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * The datasource a request is routed to and the structure to query within
+     * that datasource.
+     */
+    protected static class Route {
+        private final SqlDatasource datasource;
+        private final String structure;
+
+        public Route(SqlDatasource datasource, String structure) {
+            this.datasource = datasource;
+            this.structure = structure;
+        }
+
+        public SqlDatasource getDatasource() {
+            return datasource;
+        }
+
+        public String getStructure() {
+            return structure;
+        }
+    }
+
+    /**
+     * Determines the datasource the structure is routed to, either using the
+     * Structure Mappings or a "DATASOURCE:" prefix, and defaulting to the
+     * primary datasource.  Additional datasources that have been idle for longer
+     * than the Datasource Idle Timeout are closed first.
+     */
+    protected Route resolveRoute(String structure) throws BridgeError {
+        evictIdleDatasources();
+        String name = structureMappings.get(structure);
+        String table = structure;
+        if (name == null && structure != null) {
+            int index = structure.indexOf(':');
+            if (index > 0 && datasourceConfigurations.containsKey(structure.substring(0, index))) {
+                name = structure.substring(0, index);
+                table = structure.substring(index+1);
+            }
+        }
+        return new Route((name == null) ? primaryDatasource : getDatasource(name), table);
+    }
+
+    /**
+     * Returns the additional datasource with the specified name, creating it if
+     * it has not been used recently.
+     */
+    protected SqlDatasource getDatasource(String name) throws BridgeError {
+        SqlDatasource datasource = datasources.get(name);
+        if (datasource == null) {
+            synchronized (datasources) {
+                datasource = datasources.get(name);
+                if (datasource == null) {
+                    Map<String,String> configuration = datasourceConfigurations.get(name);
+                    String datasourceAdapterClass = configuration.get(DatasourceAttributes.ADAPTER_CLASS);
+                    if (StringUtils.isBlank(datasourceAdapterClass)) {
+                        datasourceAdapterClass = adapterClass;
+                    }
+                    try {
+                        Class.forName(datasourceAdapterClass);
+                    } catch (Exception e) {
+                        throw new BridgeError("Unable to load the "+datasourceAdapterClass+
+                            " adapter class for the "+name+" datasource.", e);
+                    }
+                    datasource = new SqlDatasource(
+                        name,
+                        configuration.get(DatasourceAttributes.CONNECTION_STRING),
+                        configuration.get(DatasourceAttributes.USERNAME),
+                        configuration.get(DatasourceAttributes.PASSWORD),
+                        SqlDialect.getDialect(configuration.get(DatasourceAttributes.DIALECT)),
+                        parseInteger(name+"."+DatasourceAttributes.MAX_IDLE_CONNECTIONS,
+                            configuration.get(DatasourceAttributes.MAX_IDLE_CONNECTIONS), maxIdleConnections),
+                        parseInteger(name+"."+DatasourceAttributes.MAX_ACTIVE_CONNECTIONS,
+                            configuration.get(DatasourceAttributes.MAX_ACTIVE_CONNECTIONS), maxActiveConnections),
+                        connectionTimeout
+                    );
+                    datasources.put(name, datasource);
+                    logger.info("Created the "+name+" datasource.");
+                }
+            }
+        }
+        return datasource;
+    }
+
+    /**
+     * Closes and removes the additional datasources that have not been used
+     * within the Datasource Idle Timeout.  This is called for every request, so
+     * the datasources are only checked once per DATASOURCE_EVICTION_INTERVAL.
+     */
+    private void evictIdleDatasources() {
+        long now = System.currentTimeMillis();
+        if (datasources.isEmpty() || now - lastEviction < DATASOURCE_EVICTION_INTERVAL) {
+            return;
+        }
+        lastEviction = now;
+        long cutoff = now - datasourceIdleTimeout*1000L;
+        for (Map.Entry<String,SqlDatasource> entry : datasources.entrySet()) {
+            // Only close the datasource if it was not already replaced
+            if (entry.getValue().getLastUsed() < cutoff && datasources.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().close();
+                logger.info("Closed the idle "+entry.getKey()+" datasource.");
+            }
+        }
+    }
+
+    private void closeDatasources() {
+        if (primaryDatasource != null) {
+            primaryDatasource.close();
+        }
+        Iterator<SqlDatasource> iterator = datasources.values().iterator();
+        while (iterator.hasNext()) {
+            SqlDatasource datasource = iterator.next();
+            iterator.remove();
+            datasource.close();
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * QUERY GUARD METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * Checks the estimated cost of the statement before it is executed.  If the
+     * statement is estimated to fully scan more than the allowed number of rows
+     * it is either rejected or waits for a throttled query slot.  This should be
+     * called before retrieving the connection for the statement, so that a
+     * throttled query does not hold a connection while it waits.
+     *
+     * @return the semaphore that a throttled query slot was acquired from, which
+     * must be released once the results have been read, or null if the query
+     * was not throttled.  The semaphore is returned (rather than released by
+     * the adapter) because re-initializing the adapter replaces it.
+     */
+    protected Semaphore admitQuery(Route route, String statementString,
+        SqlQualification qualification, BridgeRequest request
+    ) throws BridgeError {
+        if (QueryGuardModes.DISABLED.equals(queryGuardMode)
+            || !route.getDatasource().getDialect().supportsEstimates()
+        ) {
+            return null;
+        }
+        long estimate = estimateFullScanRows(route.getDatasource(), statementString, qualification, request);
+        if (estimate <= queryGuardMaxFullScanRows) {
+            return null;
+        }
+        if (QueryGuardModes.REJECT.equals(queryGuardMode)) {
+            throw new BridgeError("Rejected the query against "+request.getStructure()+
+                ", it is estimated to fully scan "+estimate+" rows (the "+
+                Properties.QUERY_GUARD_MAX_FULL_SCAN_ROWS+" is "+queryGuardMaxFullScanRows+").");
+        }
+        logger.debug("Throttling the query against "+request.getStructure()+
+            ", it is estimated to fully scan "+estimate+" rows.");
+        Semaphore throttle = throttledQueries;
+        try {
+            if (!throttle.tryAcquire(queryGuardThrottleTimeout, TimeUnit.SECONDS)) {
+                throw new BridgeError("Unable to run the query against "+request.getStructure()+
+                    ", timed out after "+queryGuardThrottleTimeout+" seconds waiting for a "+
+                    "throttled query slot (it is estimated to fully scan "+estimate+" rows).");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while waiting to run a throttled query against "+
+                request.getStructure()+".", e);
+        }
+        return throttle;
+    }
+
+    /**
+     * Returns the cached full scan estimate for the statement shape, running the
+     * dialect's EXPLAIN (with a connection of its own) the first time the shape
+     * is seen.  Returns -1 if the statement can not be estimated.
+     */
+    private long estimateFullScanRows(final SqlDatasource datasource, final String statementString,
+        SqlQualification qualification, BridgeRequest request
+    ) throws BridgeError {
+        final String shape = NUMBER_PATTERN.matcher(
+            WHITESPACE_PATTERN.matcher(statementString.trim()).replaceAll(" ")).replaceAll("?");
+        // Bind the values of this request when explaining the shape
+        final List<String> parameterValues = new ArrayList<String>();
+        for (SqlQualificationParameter parameter : qualification.getParameters()) {
+            parameterValues.add(request.getParameter(parameter.getName()));
+        }
+        // If a parameter is missing the statement will fail to bind anyway
+        if (parameterValues.contains(null)) {
+            return -1;
+        }
+        try {
+            return datasource.getFullScanEstimate(shape, new Callable<Long>() {
+                @Override
+                public Long call() throws SQLException {
+                    Long estimate = null;
+                    Connection connection = datasource.getConnection();
+                    try {
+                        estimate = datasource.getDialect().estimateFullScanRows(
+                            connection, statementString, parameterValues);
+                    } catch (SQLException e) {
+                        // Cache the failure so that the statement is not
+                        // explained again
+                        logger.warn("Unable to estimate the cost of the query: "+statementString, e);
+                    } finally {
+                        datasource.releaseConnection(connection);
+                    }
+                    if (estimate == null) {
+                        estimate = -1L;
+                    }
+                    logger.debug("Estimated the query against the "+datasource.getName()+
+                        " datasource to fully scan "+estimate+" rows: "+shape);
+                    return estimate;
+                }
+            });
+        } catch (SQLException e) {
+            logger.warn("Unable to connect to the "+datasource.getName()+
+                " datasource to estimate the cost of the query: "+statementString, e);
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while estimating the cost of the query against the "+
+                datasource.getName()+" datasource.", e);
+        }
     }
 
     /*---------------------------------------------------------------------------------------------
@@ -217,29 +1091,48 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
 
     @Override
     public Count count(BridgeRequest request) throws BridgeError {
+        // Record the start time so the request duration can be logged
+        long startTime = System.currentTimeMillis();
+        Count count = count(resolveRoute(request.getStructure()), request);
+        if (SEARCH_COUNT.get() == null) {
+            logger.debug("Executed count request against "+request.getStructure()+
+                " in "+(System.currentTimeMillis()-startTime)+"ms.");
+        }
+        return count;
+    }
+
+    /**
+     * Executes the count query against the routed datasource.
+     */
+    protected Count count(Route route, BridgeRequest request) throws BridgeError {
         // Try to retrieve the count
         Integer count = null;
 
         PreparedStatement statement = null;
         ResultSet resultSet = null;
         Connection connection = null;
+        Semaphore throttle = null;
 
         // Try to execute the query
         try {
-            // Build a connection
-            connection = DriverManager.getConnection(connectionString, username, password);
-
             // Build up the SQL WHERE clause
-            SqlQualification qualification = SqlQualificationParser.parse(request.getQuery());
+            SqlQualification qualification = SqlQualificationParser.parse(
+                request.getQuery(), route.getDatasource().getDialect().hasBackslashEscapes());
 
             // Build up the query statement
             StringBuilder statementString = new StringBuilder();
             statementString.append("SELECT COUNT(*)");
-            statementString.append(" FROM ").append(request.getStructure());
+            statementString.append(" FROM ").append(route.getStructure());
             if (StringUtils.isNotBlank(request.getQuery())){
                 statementString.append(" WHERE ").append(qualification.getParameterizedString());
             }
 
+            // Check the estimated cost of the query
+            throttle = admitQuery(route, statementString.toString(), qualification, request);
+
+            // Build a connection
+            connection = route.getDatasource().getConnection();
+
             // Prepare the statement
             logger.debug("Preparing Query");
             logger.debug("  "+statementString);
@@ -271,7 +1164,8 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
         } finally {
             closeResource(resultSet);
             closeResource(statement);
-            closeResource(connection);
+            route.getDatasource().releaseConnection(connection);
+            if (throttle != null) {throttle.release();}
         }
         
         return new Count(count);
@@ -279,30 +1173,33 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
 
     @Override
     public Record retrieve(BridgeRequest request) throws BridgeError {
+        // Record the start time so the request duration can be logged
+        long startTime = System.currentTimeMillis();
+        // Determine which datasource to query
+        Route route = resolveRoute(request.getStructure());
         // Initialize the record
         Record record = null;
 
         PreparedStatement statement = null;
         ResultSet resultSet = null;
         Connection connection = null;
+        Semaphore throttle = null;
 
         // Try to execute the query
         try {
-            // Build a connection
-            connection = DriverManager.getConnection(connectionString, username, password);
-
             // Build the list of columns to retrieve from the field string
             String columns = request.getFieldString();
             // If the field string was not provided, default it to all columns
             if (StringUtils.isBlank(columns)) {columns = "*";}
 
             // Build up the SQL WHERE clause
-            SqlQualification qualification = SqlQualificationParser.parse(request.getQuery());
+            SqlQualification qualification = SqlQualificationParser.parse(
+                request.getQuery(), route.getDatasource().getDialect().hasBackslashEscapes());
 
             // Build up the query statement
             StringBuilder statementString = new StringBuilder();
             statementString.append("SELECT ").append(columns);
-            statementString.append(" FROM ").append(request.getStructure());
+            statementString.append(" FROM ").append(route.getStructure());
             statementString.append(" WHERE ").append(qualification.getParameterizedString());
 
             // Use the metadata order if it is available
@@ -317,6 +1214,12 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
             else if(!"*".equals(columns)) {
                 statementString.append(" ORDER BY ").append(columns);
             }
+
+            // Check the estimated cost of the query
+            throttle = admitQuery(route, statementString.toString(), qualification, request);
+
+            // Build a connection
+            connection = route.getDatasource().getConnection();
         
             // Prepare the statement
             logger.debug("Preparing Query");
@@ -360,8 +1263,11 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
         } finally {
             closeResource(resultSet);
             closeResource(statement);
-            closeResource(connection);
+            route.getDatasource().releaseConnection(connection);
+            if (throttle != null) {throttle.release();}
         }
+        logger.debug("Executed retrieve request against "+request.getStructure()+
+            " in "+(System.currentTimeMillis()-startTime)+"ms.");
 
         if (record == null) { record = new Record(); }
         return record;
@@ -369,6 +1275,10 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
 
     @Override
     public RecordList search(BridgeRequest request) throws BridgeError {
+        // Record the start time so the request duration can be logged
+        long startTime = System.currentTimeMillis();
+        // Determine which datasource to query
+        Route route = resolveRoute(request.getStructure());
         // Initialize the record list
         List<Record> records = new ArrayList<Record>();
         // Initialize the metadata
@@ -377,6 +1287,7 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
         PreparedStatement statement = null;
         ResultSet resultSet = null;
         Connection connection = null;
+        Semaphore throttle = null;
 
         // Try to execute the query
         try {
@@ -393,17 +1304,32 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
                 throw new BridgeError("Illegal search, the offset does not match the specified pageSize and pageNumber.");
             }
 
-            // Build a connection
-            connection = DriverManager.getConnection(connectionString, username, password);
-            
             // Default the values
             if (pageNumber == null) {pageNumber = 1L;}
             if (pageSize == null) {pageSize = 0L;}
             if (offset == null) {offset = (pageNumber-1)*pageSize;}
             logger.trace("Searching for "+pageSize+" records starting at "+offset+".");
 
-            // Prepare the statement
-            statement = buildPaginatedStatement(connection, request, offset, pageSize);
+            if (overridesBuildPaginatedStatement) {
+                // Prepare the statement using the subclass's deprecated hook
+                // (which can not be checked by the query guard)
+                connection = route.getDatasource().getConnection();
+                statement = buildPaginatedStatement(connection, request, offset, pageSize);
+            } else {
+                // Build up the SQL WHERE clause and the statement string
+                SqlQualification qualification = SqlQualificationParser.parse(
+                    request.getQuery(), route.getDatasource().getDialect().hasBackslashEscapes());
+                String statementString = buildPaginatedStatementString(request, route, qualification, offset, pageSize);
+
+                // Check the estimated cost of the query
+                throttle = admitQuery(route, statementString, qualification, request);
+
+                // Build a connection
+                connection = route.getDatasource().getConnection();
+
+                // Prepare the statement
+                statement = preparePaginatedStatement(connection, request, statementString, qualification);
+            }
 
             // Execute the Query
             resultSet = statement.executeQuery();
@@ -416,8 +1342,29 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
             while(resultSet.next()) {
                 records.add(buildRecord(resultSet, resultSetMetadata, fields));
             }
+            long fetchTime = System.currentTimeMillis();
+            // Release the connection and the throttled query slot before
+            // counting (which uses its own connection and checks its own
+            // estimated cost)
+            closeResource(resultSet);
+            resultSet = null;
+            closeResource(statement);
+            statement = null;
+            route.getDatasource().releaseConnection(connection);
+            connection = null;
+            if (throttle != null) {
+                throttle.release();
+                throttle = null;
+            }
 
-            int count = count(request).getValue();
+            // Count through the public method (which subclasses may override)
+            int count;
+            SEARCH_COUNT.set(Boolean.TRUE);
+            try {
+                count = count(request).getValue();
+            } finally {
+                SEARCH_COUNT.remove();
+            }
             // Build the metadata
             metadata.put("pageSize", pageSize.toString());
             metadata.put("pageNumber", String.valueOf((pageSize == 0) ? 1 : (int)Math.ceil(offset/pageSize)+1));
@@ -425,31 +1372,39 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
             metadata.put("count", String.valueOf(count));
             metadata.put("size", String.valueOf(records.size()));
 
+            // Log the time spent fetching the page separately from the time
+            // spent on the additional count query
+            long endTime = System.currentTimeMillis();
+            logger.debug("Executed search request against "+request.getStructure()+
+                " in "+(endTime-startTime)+"ms ("+
+                (fetchTime-startTime)+"ms fetching "+records.size()+" records, "+
+                (endTime-fetchTime)+"ms counting).");
+
         } catch (SQLException e) {
             throw new BridgeError("Unable to execute search request.", e);
         } finally {
             closeResource(resultSet);
             closeResource(statement);
-            closeResource(connection);
+            route.getDatasource().releaseConnection(connection);
+            if (throttle != null) {throttle.release();}
         }
 
         return new RecordList(request.getFields(),records,metadata);
         
     }
 
-    protected PreparedStatement buildPaginatedStatement(
-        Connection connection,
+    protected String buildPaginatedStatementString(
         BridgeRequest request,
+        Route route,
+        SqlQualification qualification,
         Long offset,
         Long pageSize
-    ) throws BridgeError, SQLException {
+    ) throws BridgeError {
         // Build the list of columns to retrieve from the field string
         String columns = request.getFieldString();
         // If the field string was not provided, default it to all columns
         if (StringUtils.isBlank(columns)) {columns = "*";}
 
-        // Build up the SQL WHERE clause
-        SqlQualification qualification = SqlQualificationParser.parse(request.getQuery());
         // Build the SQL ORDER BY clause (validating that only the requested
         // fields are used in the column list and that there is no attempt at
         // injection).
@@ -463,26 +1418,50 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
         // Build the statement string
         StringBuilder statementString = new StringBuilder();
         statementString.append("SELECT ").append(columns);
-        statementString.append(" FROM ").append(request.getStructure());
+        statementString.append(" FROM ").append(route.getStructure());
         statementString.append(" WHERE ").append(qualification.getParameterizedString());
         // If there is an order that should be used
         if (order != null) {
             statementString.append(" ORDER BY ").append(order);
         }
-        
-        if (pageSize > 0) {
-            statementString.append(" LIMIT ").append(pageSize);
-            if (offset >= 0) {
-                statementString.append(" OFFSET ").append(offset);
-            }
-        } else if (offset > 0) {
-            statementString.append(" OFFSET ").append(offset);
-        }
+        // Limit the results to the requested page
+        route.getDatasource().getDialect().appendPagination(statementString, offset, pageSize);
+
+        return statementString.toString();
+    }
+
+    /**
+     * Builds and prepares the paginated search statement for the request.
+     *
+     * @deprecated Override buildPaginatedStatementString or
+     * preparePaginatedStatement instead.  Search requests still call this
+     * method when a subclass overrides it, but those requests are not checked
+     * by the query guard.
+     */
+    @Deprecated
+    protected PreparedStatement buildPaginatedStatement(
+        Connection connection,
+        BridgeRequest request,
+        Long offset,
+        Long pageSize
+    ) throws BridgeError, SQLException {
+        Route route = resolveRoute(request.getStructure());
+        SqlQualification qualification = SqlQualificationParser.parse(
+            request.getQuery(), route.getDatasource().getDialect().hasBackslashEscapes());
+        String statementString = buildPaginatedStatementString(request, route, qualification, offset, pageSize);
+        return preparePaginatedStatement(connection, request, statementString, qualification);
+    }
 
+    protected PreparedStatement preparePaginatedStatement(
+        Connection connection,
+        BridgeRequest request,
+        String statementString,
+        SqlQualification qualification
+    ) throws BridgeError, SQLException {
         // Prepare the statement
         logger.debug("Preparing Query");
         logger.debug("  "+statementString);
-        PreparedStatement statement = connection.prepareStatement(statementString.toString());
+        PreparedStatement statement = connection.prepareStatement(statementString);
         for (SqlQualificationParameter parameter : qualification.getParameters()) {
             // Retrieve the parameter value
             String parameterValue = request.getParameter(parameter.getName());
@@ -505,7 +1484,29 @@ public class SqlAdapter implements BridgeAdapter,DisposableAdapter {
     }
 
     @Override
-    public void destroy() {}
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        closeDatasources();
+    }
+
+    /**
+     * Returns true if the class (or a superclass below SqlAdapter) declares the
+     * deprecated buildPaginatedStatement hook.
+     */
+    private static boolean overridesBuildPaginatedStatement(Class<?> type) {
+        for (; type != null && type != SqlAdapter.class; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod("buildPaginatedStatement",
+                    Connection.class, BridgeRequest.class, Long.class, Long.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Check the superclass
+            }
+        }
+        return false;
+    }
 
     private Long getNumericalMetadata(Object metadata) {
         Long result = null;
@@ -0,0 +1,269 @@
+package com.kineticdata.bridgehub.adapter.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A named database that the adapter can route requests to.  Each datasource has
+ * its own connection settings and dialect, and keeps up to maxIdleConnections
+ * released connections open so that they can be reused by later requests.  If
+ * maxActiveConnections is greater than 0, at most that many connections are
+ * handed out at once and further requests wait up to the borrow timeout for
+ * one to be released.  The query guard estimates for the datasource are also cached here, keyed by the
+ * normalized statement.
+ */
+public class SqlDatasource {
+    /** Defines the logger */
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(SqlDatasource.class);
+
+    /** The number of seconds to wait when validating an idle connection. */
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    /** The milliseconds after being released that an idle connection is reused without validation. */
+    private static final long VALIDATION_INTERVAL = 2000;
+
+    /** The number of statement shapes to cache estimates for. */
+    private static final int MAX_CACHED_ESTIMATES = 1000;
+
+    private final String name;
+    private final String connectionString;
+    private final String username;
+    private final String password;
+    private final SqlDialect dialect;
+    private final int maxIdleConnections;
+    private final int maxActiveConnections;
+    private final int borrowTimeout;
+
+    /** Released connections that are available for reuse, most recently released first. */
+    private final LinkedList<IdleConnection> idleConnections = new LinkedList<IdleConnection>();
+    /** Limits the connections handed out at once (null if unlimited). */
+    private final Semaphore activeConnections;
+    /** The connections handed out by getConnection that have not been released. */
+    private final Set<Connection> borrowedConnections =
+        Collections.newSetFromMap(new IdentityHashMap<Connection,Boolean>());
+    /** Set once the datasource has been closed (or evicted). */
+    private boolean closed = false;
+    /** The full scan estimates for each statement shape. */
+    private final ConcurrentHashMap<String,FutureTask<Long>> fullScanEstimates =
+        new ConcurrentHashMap<String,FutureTask<Long>>();
+    /** The last time a connection was retrieved from the datasource. */
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    public SqlDatasource(String name, String connectionString, String username,
+        String password, SqlDialect dialect, int maxIdleConnections,
+        int maxActiveConnections, int borrowTimeout
+    ) {
+        this.name = name;
+        this.connectionString = connectionString;
+        this.username = username;
+        this.password = password;
+        this.dialect = dialect;
+        this.maxIdleConnections = maxIdleConnections;
+        this.maxActiveConnections = maxActiveConnections;
+        this.borrowTimeout = borrowTimeout;
+        this.activeConnections = (maxActiveConnections > 0)
+            ? new Semaphore(maxActiveConnections, true) : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getConnectionString() {
+        return connectionString;
+    }
+
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public int getMaxActiveConnections() {
+        return maxActiveConnections;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Returns the cached full scan estimate for the statement shape.  The first
+     * request for a shape runs the estimator, and concurrent requests for the
+     * same shape wait for its result rather than running their own.  If the
+     * estimator fails the shape is not cached, so a later request retries it.
+     */
+    public Long getFullScanEstimate(String shape, Callable<Long> estimator)
+        throws SQLException, InterruptedException
+    {
+        FutureTask<Long> task = fullScanEstimates.get(shape);
+        if (task == null) {
+            // Start over rather than growing without bound if the shapes are
+            // not being reused (for example, if the structure is generated)
+            if (fullScanEstimates.size() >= MAX_CACHED_ESTIMATES) {
+                fullScanEstimates.clear();
+            }
+            FutureTask<Long> newTask = new FutureTask<Long>(estimator);
+            task = fullScanEstimates.putIfAbsent(shape, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            fullScanEstimates.remove(shape, task);
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Unable to estimate the cost of the statement.", e.getCause());
+        }
+    }
+
+    /**
+     * Returns an idle connection if there is a valid one, otherwise opens a new
+     * connection.  Idle connections that were released within the last
+     * VALIDATION_INTERVAL are reused without being validated.  If the
+     * maxActiveConnections are all in use, this waits up to the borrow timeout
+     * for one to be released.  Connections should be returned using
+     * releaseConnection.
+     */
+    public Connection getConnection() throws SQLException {
+        lastUsed = System.currentTimeMillis();
+        if (activeConnections != null) {
+            try {
+                if (!activeConnections.tryAcquire(borrowTimeout, TimeUnit.SECONDS)) {
+                    throw new SQLException("Unable to get a connection to the "+name+" datasource within "+
+                        borrowTimeout+" seconds, all "+maxActiveConnections+" connections are in use.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection to the "+name+" datasource.", e);
+            }
+        }
+        Connection connection = null;
+        try {
+            IdleConnection idleConnection;
+            while (connection == null && (idleConnection = pollIdleConnection()) != null) {
+                connection = idleConnection.connection;
+                if (System.currentTimeMillis()-idleConnection.releasedAt >= VALIDATION_INTERVAL
+                    && !connection.isValid(VALIDATION_TIMEOUT)
+                ) {
+                    closeConnection(connection);
+                    connection = null;
+                }
+            }
+            if (connection == null) {
+                connection = DriverManager.getConnection(connectionString, username, password);
+            }
+        } finally {
+            if (connection == null) {
+                if (activeConnections != null) {
+                    activeConnections.release();
+                }
+            } else {
+                synchronized (borrowedConnections) {
+                    borrowedConnections.add(connection);
+                }
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Keeps the connection open for reuse if there is room in the idle pool,
+     * otherwise closes it.  Releasing a connection that was handed out by
+     * getConnection frees its maxActiveConnections slot, even if the caller
+     * has already closed it.
+     */
+    public void releaseConnection(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            retainConnection(connection);
+        } finally {
+            boolean borrowed;
+            synchronized (borrowedConnections) {
+                borrowed = borrowedConnections.remove(connection);
+            }
+            if (borrowed && activeConnections != null) {
+                activeConnections.release();
+            }
+        }
+    }
+
+    /**
+     * Closes the idle connections.  Connections that are in use are closed
+     * when they are released.
+     */
+    public void close() {
+        synchronized (idleConnections) {
+            closed = true;
+        }
+        IdleConnection idleConnection;
+        while ((idleConnection = pollIdleConnection()) != null) {
+            closeConnection(idleConnection.connection);
+        }
+    }
+
+    private void retainConnection(Connection connection) {
+        try {
+            if (connection.isClosed()) {
+                return;
+            }
+        } catch (SQLException e) {
+            closeConnection(connection);
+            return;
+        }
+        boolean retained = false;
+        synchronized (idleConnections) {
+            if (!closed && idleConnections.size() < maxIdleConnections) {
+                idleConnections.addFirst(new IdleConnection(connection));
+                retained = true;
+            }
+        }
+        if (!retained) {
+            closeConnection(connection);
+        }
+    }
+
+    private IdleConnection pollIdleConnection() {
+        synchronized (idleConnections) {
+            return idleConnections.poll();
+        }
+    }
+
+    private void closeConnection(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("Failed to close a connection to the "+name+" datasource", e);
+        }
+    }
+
+    /** A released connection and the time it was released. */
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long releasedAt = System.currentTimeMillis();
+
+        private IdleConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+}
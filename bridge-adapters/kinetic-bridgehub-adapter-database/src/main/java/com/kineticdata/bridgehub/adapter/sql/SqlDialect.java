@@ -0,0 +1,267 @@
+package com.kineticdata.bridgehub.adapter.sql;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Defines the database specific SQL syntax used by the adapter.  The dialect is
+ * configured by name for each datasource:
+ *  - Default (LIMIT and OFFSET, the syntax the adapter has always used)
+ *  - PostgreSQL (LIMIT and OFFSET)
+ *  - MySQL (LIMIT and OFFSET, with a LIMIT when only an OFFSET is requested)
+ *  - ANSI (OFFSET ... ROWS FETCH NEXT ... ROWS ONLY, for SQL Server 2012+,
+ *    Oracle 12c+ and DB2)
+ *
+ * The PostgreSQL and MySQL dialects also support estimating the cost of a
+ * statement for the query guard.
+ */
+public abstract class SqlDialect {
+
+    /** Defines the names of the supported dialects. */
+    public static class Names {
+        public static final String DEFAULT = "Default";
+        public static final String POSTGRESQL = "PostgreSQL";
+        public static final String MYSQL = "MySQL";
+        public static final String ANSI = "ANSI";
+    }
+
+    /** Matches the table name of each sequential scan in a PostgreSQL plan. */
+    private static final Pattern SEQ_SCAN_PATTERN = Pattern.compile("Seq Scan on (\"(?:[^\"]|\"\")+\"|\\S+)");
+
+    public static final SqlDialect DEFAULT = new LimitOffsetDialect(Names.DEFAULT);
+    public static final SqlDialect POSTGRESQL = new LimitOffsetDialect(Names.POSTGRESQL) {
+        @Override
+        public boolean supportsEstimates() {
+            return true;
+        }
+
+        @Override
+        public Long estimateFullScanRows(Connection connection, String statement, List<String> parameterValues)
+            throws SQLException
+        {
+            // Collect the tables that the plan sequentially scans
+            Set<String> tables = new HashSet<String>();
+            PreparedStatement explain = connection.prepareStatement("EXPLAIN "+statement);
+            try {
+                bind(explain, parameterValues);
+                ResultSet resultSet = explain.executeQuery();
+                try {
+                    while (resultSet.next()) {
+                        Matcher matcher = SEQ_SCAN_PATTERN.matcher(resultSet.getString(1));
+                        if (matcher.find()) {
+                            String table = matcher.group(1);
+                            if (table.startsWith("\"")) {
+                                table = table.substring(1, table.length()-1).replace("\"\"", "\"");
+                            }
+                            tables.add(table);
+                        }
+                    }
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                explain.close();
+            }
+
+            // The plan only estimates the rows a scan returns, so look up the
+            // estimated size of each of the scanned tables
+            long result = 0;
+            for (String table : tables) {
+                PreparedStatement size = connection.prepareStatement(
+                    "SELECT MAX(reltuples) FROM pg_class WHERE relname = ?");
+                try {
+                    size.setString(1, table);
+                    ResultSet resultSet = size.executeQuery();
+                    try {
+                        if (resultSet.next()) {
+                            result = Math.max(result, resultSet.getLong(1));
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+                } finally {
+                    size.close();
+                }
+            }
+            return result;
+        }
+    };
+    public static final SqlDialect MYSQL = new LimitOffsetDialect(Names.MYSQL) {
+        @Override
+        public boolean hasBackslashEscapes() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsEstimates() {
+            return true;
+        }
+
+        @Override
+        public Long estimateFullScanRows(Connection connection, String statement, List<String> parameterValues)
+            throws SQLException
+        {
+            // Each row of the plan estimates the rows read from one table, and
+            // an access type of ALL indicates a full table scan
+            long result = 0;
+            PreparedStatement explain = connection.prepareStatement("EXPLAIN "+statement);
+            try {
+                bind(explain, parameterValues);
+                ResultSet resultSet = explain.executeQuery();
+                try {
+                    while (resultSet.next()) {
+                        if ("ALL".equalsIgnoreCase(resultSet.getString("type"))) {
+                            result = Math.max(result, resultSet.getLong("rows"));
+                        }
+                    }
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                explain.close();
+            }
+            return result;
+        }
+
+        @Override
+        public void appendPagination(StringBuilder statement, Long offset, Long pageSize) {
+            // MySQL does not support an OFFSET without a LIMIT, so the maximum
+            // row count is used when only an offset is requested
+            if (pageSize <= 0 && offset > 0) {
+                statement.append(" LIMIT 18446744073709551615 OFFSET ").append(offset);
+            } else {
+                super.appendPagination(statement, offset, pageSize);
+            }
+        }
+    };
+    public static final SqlDialect ANSI = new SqlDialect(Names.ANSI) {
+        @Override
+        public void appendPagination(StringBuilder statement, Long offset, Long pageSize) {
+            if (pageSize > 0 || offset > 0) {
+                statement.append(" OFFSET ").append(Math.max(offset, 0)).append(" ROWS");
+                if (pageSize > 0) {
+                    statement.append(" FETCH NEXT ").append(pageSize).append(" ROWS ONLY");
+                }
+            }
+        }
+    };
+
+    private static final Map<String,SqlDialect> DIALECTS = new LinkedHashMap<String,SqlDialect>();
+    static {
+        for (SqlDialect dialect : new SqlDialect[] {DEFAULT, POSTGRESQL, MYSQL, ANSI}) {
+            DIALECTS.put(dialect.getName().toLowerCase(), dialect);
+        }
+    }
+
+    private final String name;
+
+    protected SqlDialect(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Appends the clause that limits the results to the requested page.  A
+     * pageSize of 0 indicates that all of the records after the offset should
+     * be returned.
+     *
+     * @param statement
+     * @param offset
+     * @param pageSize
+     */
+    public abstract void appendPagination(StringBuilder statement, Long offset, Long pageSize);
+
+    /**
+     * Returns true if a backslash escapes the next character within quotes,
+     * which affects where the qualification parser considers a quote to end.
+     */
+    public boolean hasBackslashEscapes() {
+        return false;
+    }
+
+    /**
+     * Returns true if the dialect implements estimateFullScanRows, otherwise the
+     * query guard has no effect on datasources that use the dialect.
+     */
+    public boolean supportsEstimates() {
+        return false;
+    }
+
+    /**
+     * Returns the estimated number of rows in the largest table the statement
+     * would read using a full table scan (0 if it would not use a full table
+     * scan), or null if the dialect does not support estimates.
+     *
+     * @param connection
+     * @param statement The parameterized statement.
+     * @param parameterValues The values to bind to the statement parameters.
+     * @return
+     * @throws SQLException
+     */
+    public Long estimateFullScanRows(Connection connection, String statement, List<String> parameterValues)
+        throws SQLException
+    {
+        return null;
+    }
+
+    /**
+     * Binds the parameter values to the statement in order.
+     */
+    protected static void bind(PreparedStatement statement, List<String> parameterValues) throws SQLException {
+        for (int i=0; i<parameterValues.size(); i++) {
+            statement.setObject(i+1, parameterValues.get(i));
+        }
+    }
+
+    /**
+     * Returns the dialect with the specified name (ignoring case), or the
+     * Default dialect if the name is blank.
+     *
+     * @param name
+     * @return
+     * @throws BridgeError If there is no dialect with the specified name.
+     */
+    public static SqlDialect getDialect(String name) throws BridgeError {
+        if (StringUtils.isBlank(name)) {
+            return DEFAULT;
+        }
+        SqlDialect dialect = DIALECTS.get(name.trim().toLowerCase());
+        if (dialect == null) {
+            throw new BridgeError("Unknown SQL dialect '"+name+"', expected one of: "+
+                StringUtils.join(DIALECTS.keySet(), ", ")+".");
+        }
+        return dialect;
+    }
+
+    private static class LimitOffsetDialect extends SqlDialect {
+        private LimitOffsetDialect(String name) {
+            super(name);
+        }
+
+        @Override
+        public void appendPagination(StringBuilder statement, Long offset, Long pageSize) {
+            if (pageSize > 0) {
+                statement.append(" LIMIT ").append(pageSize);
+                if (offset >= 0) {
+                    statement.append(" OFFSET ").append(offset);
+                }
+            } else if (offset > 0) {
+                statement.append(" OFFSET ").append(offset);
+            }
+        }
+    }
+}
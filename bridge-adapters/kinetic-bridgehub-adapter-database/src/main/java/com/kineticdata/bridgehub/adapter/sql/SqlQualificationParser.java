@@ -9,12 +9,18 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.apache.commons.lang.StringUtils;
 
 public class SqlQualificationParser {
-    public static String PARAMETER_PATTERN = "<%=\\s*parameter\\[\\\"?(.*?)\\\"?\\]\\s*%>";
+    /**
+     * The grammar of a parameter reference.  References are recognized by the
+     * single pass scanner in {@link #parse(String)}, which is tested against
+     * this pattern.
+     */
+    public static final String PARAMETER_PATTERN = "<%=\\s*parameter\\[\\\"?(.*?)\\\"?\\]\\s*%>";
+
+    /** The keyword expected between the opening tag and the bracket. */
+    private static final String PARAMETER_KEYWORD = "parameter[";
 
     /**
      * Since the order by is specified in metadata, which can be configured
@@ -88,28 +94,211 @@ public class SqlQualificationParser {
         return StringUtils.join(cleansedSegments, ", ");
     }
 
-    public static SqlQualification parse(String query) {
+    /**
+     * Parses the query treating backslashes as ordinary characters within
+     * quotes, as standard SQL does.
+     *
+     * @param query
+     * @return
+     * @throws BridgeError
+     * @see #parse(String, boolean)
+     */
+    public static SqlQualification parse(String query) throws BridgeError {
+        return parse(query, false);
+    }
+
+    /**
+     * Replaces each parameter reference in the query, such as
+     * <%=parameter["Name"]%>, with a JDBC ? placeholder and returns the
+     * parameterized string along with the ordered list of parameter names.
+     *
+     * The query is scanned once, skipping over SQL string literals ('...'),
+     * quoted identifiers ("...") and comments (both -- line comments and /*
+     * block comments).  A placeholder can not be bound in those positions, so
+     * a parameter reference inside of one is an error.  If a quote or block
+     * comment is never closed the scan treats it as plain text, so that a
+     * misread escape does not hide the rest of the query.
+     *
+     * @param query
+     * @param backslashEscapes Whether a backslash escapes the next character
+     * within quotes (as it does in MySQL).
+     * @return
+     * @throws BridgeError If a parameter reference is inside of a string
+     * literal, quoted identifier or comment.
+     */
+    public static SqlQualification parse(String query, boolean backslashEscapes) throws BridgeError {
         // Initialize
         List<SqlQualificationParameter> parameters = new ArrayList();
+        if (query == null) {
+            return new SqlQualification("", parameters);
+        }
 
-        // Create the pattern and pattern matcher
-        Pattern pattern = Pattern.compile(PARAMETER_PATTERN);
-        Matcher matcher = pattern.matcher(query);
-
-        // Build up the results string
-        StringBuffer buffer = new StringBuffer();
-        while(matcher.find()) {
-            // Retrieve the necessary values
-            String parameterName = matcher.group(1);
-            // Add the parameter to the parameters list
-            parameters.add(new SqlQualificationParameter(parameters.size()+1, parameterName));
-            // Append any part of the qualification that exists before the match
-            matcher.appendReplacement(buffer, Matcher.quoteReplacement("?"));
+        int length = query.length();
+        StringBuilder buffer = null;
+        // The start of the section of the query that has not been copied yet
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (c == '\'' || c == '"') {
+                // Skip over the string literal or quoted identifier (a doubled
+                // quote is an escaped quote and simply restarts the scan)
+                int end = findClosingQuote(query, i, backslashEscapes);
+                if (end < 0) {
+                    // The quotes do not match up, treat the quote as plain SQL
+                    i++;
+                } else {
+                    checkForParameter(query, i+1, end-1, (c == '\'') ? "string literal" : "quoted identifier");
+                    i = end;
+                }
+            } else if (c == '-' && i+1 < length && query.charAt(i+1) == '-') {
+                // Skip to the end of the line comment
+                int end = query.indexOf('\n', i+2);
+                end = (end < 0) ? length : end+1;
+                checkForParameter(query, i+2, end, "comment");
+                i = end;
+            } else if (c == '/' && i+1 < length && query.charAt(i+1) == '*') {
+                // Skip to the end of the block comment
+                int end = query.indexOf("*/", i+2);
+                if (end < 0) {
+                    // The comment is never closed, treat it as plain SQL
+                    i++;
+                } else {
+                    checkForParameter(query, i+2, end, "comment");
+                    i = end+2;
+                }
+            } else if (c == '<' && query.startsWith("<%=", i)) {
+                int end = scanParameter(query, i, parameters);
+                if (end < 0) {
+                    // Not a parameter reference, treat the '<' as plain SQL
+                    i++;
+                } else {
+                    // Copy the section before the reference and replace the
+                    // reference itself with a placeholder
+                    if (buffer == null) {
+                        buffer = new StringBuilder(length);
+                    }
+                    buffer.append(query, copied, i).append('?');
+                    copied = end;
+                    i = end;
+                }
+            } else {
+                i++;
+            }
         }
-        // Append any part of the qualification remaining after the last match
-        matcher.appendTail(buffer);
 
-        return new SqlQualification(buffer.toString(), parameters);
+        // If there were no parameter references, the query is unchanged
+        String parameterizedString;
+        if (buffer == null) {
+            parameterizedString = query;
+        } else {
+            parameterizedString = buffer.append(query, copied, length).toString();
+        }
+        return new SqlQualification(parameterizedString, parameters);
+    }
+
+    /**
+     * Returns the index immediately after the quote that closes the quote at
+     * the specified index, or -1 if it is never closed.
+     */
+    private static int findClosingQuote(String query, int start, boolean backslashEscapes) {
+        char quote = query.charAt(start);
+        for (int i = start+1; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '\\' && backslashEscapes) {
+                i++;
+            } else if (c == quote) {
+                return i+1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Throws a BridgeError if there is a parameter reference between the
+     * specified indexes (which are the contents of a literal or comment).
+     */
+    private static void checkForParameter(String query, int start, int end, String description) throws BridgeError {
+        int index = query.indexOf("<%=", start);
+        while (index >= 0 && index < end) {
+            List<SqlQualificationParameter> references = new ArrayList<SqlQualificationParameter>(1);
+            int referenceEnd = scanParameter(query, index, references);
+            if (referenceEnd >= 0 && referenceEnd <= end) {
+                throw new BridgeError("Unable to parse qualification, the '"+
+                    references.get(0).getName()+"' parameter is referenced inside of a "+
+                    description+", where it can not be bound (if the qualification "+
+                    "escapes quotes with a backslash, note that only some databases "+
+                    "support backslash escapes).");
+            }
+            index = query.indexOf("<%=", index+3);
+        }
+    }
+
+    /**
+     * Attempts to read a parameter reference starting at the "<%=" located at
+     * the specified index.  If there is one, the parameter is added to the
+     * parameters list and the index immediately after the closing "%>" is
+     * returned, otherwise -1 is returned.
+     */
+    private static int scanParameter(String query, int start, List<SqlQualificationParameter> parameters) {
+        int length = query.length();
+        int i = skipWhitespace(query, start+3);
+        if (!query.startsWith(PARAMETER_KEYWORD, i)) {
+            return -1;
+        }
+        int nameStart = i + PARAMETER_KEYWORD.length();
+        if (nameStart < length && query.charAt(nameStart) == '"') {
+            nameStart++;
+        }
+        // Find the shortest name that is followed by an optional quote, the
+        // closing bracket and the closing tag
+        for (int nameEnd = nameStart; nameEnd < length; nameEnd++) {
+            char c = query.charAt(nameEnd);
+            // Like the pattern, names do not span lines
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return -1;
+            }
+            int bracket = (c == '"') ? nameEnd+1 : nameEnd;
+            if (bracket < length && query.charAt(bracket) == ']') {
+                int close = skipWhitespace(query, bracket+1);
+                if (query.startsWith("%>", close)) {
+                    parameters.add(new SqlQualificationParameter(
+                        parameters.size()+1, parameterName(query, nameStart, nameEnd, parameters)));
+                    return close+2;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name between the specified indexes, reusing the String of a
+     * previously referenced parameter with the same name if there is one.
+     */
+    private static String parameterName(String query, int start, int end, List<SqlQualificationParameter> parameters) {
+        int nameLength = end - start;
+        for (SqlQualificationParameter parameter : parameters) {
+            String name = parameter.getName();
+            if (name.length() == nameLength && query.regionMatches(start, name, 0, nameLength)) {
+                return name;
+            }
+        }
+        return query.substring(start, end);
+    }
+
+    /**
+     * Returns the index of the first character at or after the specified
+     * index that is not whitespace (as defined by the \s pattern class).
+     */
+    private static int skipWhitespace(String query, int index) {
+        while (index < query.length()) {
+            char c = query.charAt(index);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+                break;
+            }
+            index++;
+        }
+        return index;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,33 @@
+package com.kineticdata.bridgehub.adapter.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The original regular expression based qualification parser, which is used
+ * as the oracle in the differential tests and as the baseline in the
+ * benchmark.  It replaces every match of
+ * {@link SqlQualificationParser#PARAMETER_PATTERN}, including matches inside
+ * of string literals and comments.
+ */
+public class RegexQualificationParser {
+    private static final Pattern PATTERN = Pattern.compile(SqlQualificationParser.PARAMETER_PATTERN);
+
+    public static SqlQualification parse(String query) {
+        // Initialize
+        List<SqlQualificationParameter> parameters = new ArrayList<SqlQualificationParameter>();
+        Matcher matcher = PATTERN.matcher(query);
+
+        // Build up the results string
+        StringBuffer buffer = new StringBuffer();
+        while (matcher.find()) {
+            parameters.add(new SqlQualificationParameter(parameters.size()+1, matcher.group(1)));
+            matcher.appendReplacement(buffer, Matcher.quoteReplacement("?"));
+        }
+        matcher.appendTail(buffer);
+
+        return new SqlQualification(buffer.toString(), parameters);
+    }
+}
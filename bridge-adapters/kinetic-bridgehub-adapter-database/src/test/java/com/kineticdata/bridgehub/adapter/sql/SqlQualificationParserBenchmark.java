@@ -0,0 +1,56 @@
+package com.kineticdata.bridgehub.adapter.sql;
+
+import java.util.Locale;
+
+/**
+ * Compares the throughput of the single pass qualification parser with the
+ * original regular expression parser.  Run with:
+ *  mvn test-compile exec:java -Dexec.classpathScope=test \
+ *    -Dexec.mainClass=com.kineticdata.bridgehub.adapter.sql.SqlQualificationParserBenchmark
+ *
+ * The optional arguments are the number of iterations per round and the number
+ * of rounds (the first round is treated as a warm up and not reported).
+ */
+public class SqlQualificationParserBenchmark {
+    private static final String[] QUERIES = new String[] {
+        "SELECT id, name, status FROM records",
+        "SELECT id, name, status FROM records WHERE id = <%=parameter[\"Id\"]%>",
+        "SELECT id, name, status FROM records WHERE category = <%= parameter[\"Category\"] %> "+
+            "AND status IN (<%=parameter[\"Status 1\"]%>, <%=parameter[\"Status 2\"]%>) "+
+            "AND name <> 'O''Brien' -- exclude the test record\n"+
+            "AND (owner = <%=parameter[\"Owner\"]%> OR assignee = <%=parameter[\"Owner\"]%>)"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        // Prevents the results from being optimized away
+        long checksum = 0;
+        for (int round = 0; round < rounds; round++) {
+            long regexStart = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += RegexQualificationParser.parse(QUERIES[i % QUERIES.length])
+                    .getParameters().size();
+            }
+            long regexDuration = System.nanoTime() - regexStart;
+
+            long scannerStart = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += SqlQualificationParser.parse(QUERIES[i % QUERIES.length])
+                    .getParameters().size();
+            }
+            long scannerDuration = System.nanoTime() - scannerStart;
+
+            if (round > 0) {
+                System.out.println(String.format(Locale.ROOT,
+                    "Round %d: regex %.0f ns/op, scanner %.0f ns/op (%.1fx)",
+                    round,
+                    (double) regexDuration/iterations,
+                    (double) scannerDuration/iterations,
+                    (double) regexDuration/scannerDuration));
+            }
+        }
+        System.out.println("Checksum: "+checksum);
+    }
+}
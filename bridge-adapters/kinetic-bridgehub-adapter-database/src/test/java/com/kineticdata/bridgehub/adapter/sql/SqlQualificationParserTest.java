@@ -0,0 +1,219 @@
+package com.kineticdata.bridgehub.adapter.sql;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class SqlQualificationParserTest {
+    /** Plain SQL fragments, none of which contain quotes or comment markers. */
+    private static final String[] FRAGMENTS = new String[] {
+        "name = ", "id = ", " AND ", " OR ", "(", ")", " ", "  ", "\t", "\n", "\r\n",
+        "<", ">", "%", "%>", "<%", "<%=", "=", "[", "]", "parameter", "parameter[",
+        "<%=field[", "IN (", ", ", "1", "x"
+    };
+
+    /** The characters used to build parameter names. */
+    private static final String NAME_CHARACTERS = "abcXYZ019 _.%>[<=";
+
+    /** The whitespace allowed around the parameter reference keyword. */
+    private static final String[] WHITESPACE = new String[] {"", "", " ", "  ", "\t", "\n"};
+
+    /*----------------------------------------------------------------------------------------------
+     * DIFFERENTIAL TESTS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Outside of literals and comments the scanner should produce exactly the
+     * same results as the original regular expression.
+     */
+    @Test
+    public void test_matchesPattern() throws Exception {
+        Random random = new Random(20261019L);
+        for (int i = 0; i < 20000; i++) {
+            String query = randomQuery(random);
+            assertSameResult(query, RegexQualificationParser.parse(query),
+                SqlQualificationParser.parse(query));
+            assertSameResult(query, RegexQualificationParser.parse(query),
+                SqlQualificationParser.parse(query, true));
+        }
+    }
+
+    @Test
+    public void test_matchesPatternWithLiterals() throws Exception {
+        String query = "name = 'O''Brien' AND \"Status\" = <%= parameter[\"Status\"] %> -- trailing\n"+
+            "AND /* block */ id IN (<%=parameter[\"Id\"]%>, <%=parameter[Other]%>)";
+        assertSameResult(query, RegexQualificationParser.parse(query), SqlQualificationParser.parse(query));
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * QUOTE TESTS
+     *--------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void test_backslashEscapedQuote() throws Exception {
+        String query = "name = 'O\\'Brien' AND id = <%=parameter[\"Id\"]%>";
+        // With backslash escapes the literal ends at the final quote
+        SqlQualification qualification = SqlQualificationParser.parse(query, true);
+        assertEquals("name = 'O\\'Brien' AND id = ?", qualification.getParameterizedString());
+        assertParameters(qualification, "Id");
+        // Without them the trailing quote is never closed, so it is plain SQL
+        qualification = SqlQualificationParser.parse(query, false);
+        assertEquals("name = 'O\\'Brien' AND id = ?", qualification.getParameterizedString());
+        assertParameters(qualification, "Id");
+    }
+
+    @Test
+    public void test_doubledQuote() throws Exception {
+        SqlQualification qualification = SqlQualificationParser.parse(
+            "name = 'O''Brien' AND id = <%=parameter[\"Id\"]%>");
+        assertEquals("name = 'O''Brien' AND id = ?", qualification.getParameterizedString());
+        assertParameters(qualification, "Id");
+    }
+
+    @Test
+    public void test_unmatchedQuote() throws Exception {
+        SqlQualification qualification = SqlQualificationParser.parse(
+            "name = 'O AND id = <%=parameter[\"Id\"]%> /* open");
+        assertEquals("name = 'O AND id = ? /* open", qualification.getParameterizedString());
+        assertParameters(qualification, "Id");
+    }
+
+    @Test
+    public void test_trailingBackslashInLiteral() throws Exception {
+        SqlQualification qualification = SqlQualificationParser.parse(
+            "path = 'C:\\' AND id = <%=parameter[\"Id\"]%>", false);
+        assertEquals("path = 'C:\\' AND id = ?", qualification.getParameterizedString());
+        assertParameters(qualification, "Id");
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * UNBINDABLE REFERENCE TESTS
+     *--------------------------------------------------------------------------------------------*/
+
+    @Test(expected = BridgeError.class)
+    public void test_referenceInStringLiteral() throws Exception {
+        SqlQualificationParser.parse("name LIKE '%<%=parameter[\"Name\"]%>%'");
+    }
+
+    @Test(expected = BridgeError.class)
+    public void test_referenceInQuotedIdentifier() throws Exception {
+        SqlQualificationParser.parse("\"<%=parameter[Column]%>\" = 1");
+    }
+
+    @Test(expected = BridgeError.class)
+    public void test_referenceInLineComment() throws Exception {
+        SqlQualificationParser.parse("id = 1 -- <%=parameter[\"Id\"]%>\nAND name = 'x'");
+    }
+
+    @Test(expected = BridgeError.class)
+    public void test_referenceInBlockComment() throws Exception {
+        SqlQualificationParser.parse("id = 1 /* <%=parameter[\"Id\"]%> */");
+    }
+
+    @Test(expected = BridgeError.class)
+    public void test_referenceAfterBackslashEscapedQuote() throws Exception {
+        // Without backslash escapes the second literal starts at the escaped
+        // quote, and the reference falls inside of it
+        SqlQualificationParser.parse("a = 'O\\'Brien' AND b = <%=parameter[\"B\"]%> AND c = 'x'", false);
+    }
+
+    @Test
+    public void test_nonReferenceInLiteral() throws Exception {
+        SqlQualification qualification = SqlQualificationParser.parse(
+            "body = '<%= not a reference %>' AND id = <%=parameter[\"Id\"]%>");
+        assertEquals("body = '<%= not a reference %>' AND id = ?", qualification.getParameterizedString());
+        assertParameters(qualification, "Id");
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * GENERAL TESTS
+     *--------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void test_nullQuery() throws Exception {
+        SqlQualification qualification = SqlQualificationParser.parse(null);
+        assertEquals("", qualification.getParameterizedString());
+        assertEquals(0, qualification.getParameters().size());
+    }
+
+    @Test
+    public void test_repeatedParameter() throws Exception {
+        SqlQualification qualification = SqlQualificationParser.parse(
+            "a = <%=parameter[\"Id\"]%> OR b = <%=parameter[\"Id\"]%>");
+        assertEquals("a = ? OR b = ?", qualification.getParameterizedString());
+        assertParameters(qualification, "Id", "Id");
+        assertEquals(Integer.valueOf(2), qualification.getParameters().get(1).getIndex());
+        assertSame(qualification.getParameters().get(0).getName(),
+            qualification.getParameters().get(1).getName());
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static void assertSameResult(String query, SqlQualification expected, SqlQualification actual) {
+        assertEquals("Parameterized string of: "+query,
+            expected.getParameterizedString(), actual.getParameterizedString());
+        assertEquals("Parameters of: "+query,
+            describe(expected.getParameters()), describe(actual.getParameters()));
+    }
+
+    private static void assertParameters(SqlQualification qualification, String... names) {
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < names.length; i++) {
+            expected.add((i+1)+":"+names[i]);
+        }
+        assertEquals(expected, describe(qualification.getParameters()));
+    }
+
+    private static List<String> describe(List<SqlQualificationParameter> parameters) {
+        List<String> result = new ArrayList<String>();
+        for (SqlQualificationParameter parameter : parameters) {
+            result.add(parameter.getIndex()+":"+parameter.getName());
+        }
+        return result;
+    }
+
+    /**
+     * Builds a query from plain fragments and parameter references, including
+     * malformed references and unusual spacing.
+     */
+    private static String randomQuery(Random random) {
+        StringBuilder query = new StringBuilder();
+        int atoms = random.nextInt(12);
+        for (int i = 0; i < atoms; i++) {
+            if (random.nextInt(3) == 0) {
+                query.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            } else {
+                boolean quoted = random.nextBoolean();
+                query.append("<%=")
+                    .append(WHITESPACE[random.nextInt(WHITESPACE.length)])
+                    .append("parameter[");
+                if (quoted) {
+                    query.append('"');
+                }
+                int nameLength = random.nextInt(6);
+                for (int j = 0; j < nameLength; j++) {
+                    query.append(NAME_CHARACTERS.charAt(random.nextInt(NAME_CHARACTERS.length())));
+                }
+                if (quoted) {
+                    query.append('"');
+                }
+                // Occasionally leave an unquoted reference unterminated (an
+                // unterminated quoted one would leave a stray quote behind)
+                if (quoted || random.nextInt(10) > 0) {
+                    query.append(']');
+                }
+                query.append(WHITESPACE[random.nextInt(WHITESPACE.length)]);
+                if (quoted || random.nextInt(10) > 0) {
+                    query.append("%>");
+                }
+            }
+        }
+        return query.toString();
+    }
+}
@@ -0,0 +1,185 @@
+package com.kineticdata.bridgehub.adapter.sql.loadtest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver that proxies another driver and adds a simulated network latency
+ * to each connection attempt and statement execution.  Connection strings are
+ * the delegate connection string prefixed with "jdbc:latency:", for example:
+ *  jdbc:latency:jdbc:h2:mem:loadtest
+ *
+ * The driver also tracks the number of open connections so that the load test
+ * can report connection usage.
+ */
+public class LatencyInjectingDriver implements Driver {
+    public static final String URL_PREFIX = "jdbc:latency:";
+
+    /** The milliseconds added to each statement execution. */
+    private static volatile long queryLatency = 0;
+    /** The maximum random milliseconds added to the query latency. */
+    private static volatile long queryJitter = 0;
+    /** The milliseconds added to each connection attempt. */
+    private static volatile long connectLatency = 0;
+
+    private static final AtomicInteger openConnections = new AtomicInteger();
+    private static final AtomicInteger peakOpenConnections = new AtomicInteger();
+    private static final AtomicInteger openedConnections = new AtomicInteger();
+    private static final Random random = new Random();
+
+    static {
+        try {
+            DriverManager.registerDriver(new LatencyInjectingDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public static void configure(long queryLatency, long queryJitter, long connectLatency) {
+        LatencyInjectingDriver.queryLatency = queryLatency;
+        LatencyInjectingDriver.queryJitter = queryJitter;
+        LatencyInjectingDriver.connectLatency = connectLatency;
+    }
+
+    public static int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public static int getPeakOpenConnections() {
+        return peakOpenConnections.get();
+    }
+
+    public static int getOpenedConnections() {
+        return openedConnections.get();
+    }
+
+    /** Resets the peak and opened connection counts (for example, after a warm up). */
+    public static void resetConnectionStatistics() {
+        peakOpenConnections.set(openConnections.get());
+        openedConnections.set(0);
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        sleep(connectLatency);
+        final Connection connection = DriverManager.getConnection(url.substring(URL_PREFIX.length()), info);
+        openedConnections.incrementAndGet();
+        int open = openConnections.incrementAndGet();
+        int peak;
+        while (open > (peak = peakOpenConnections.get()) && !peakOpenConnections.compareAndSet(peak, open)) {}
+
+        return (Connection) Proxy.newProxyInstance(
+            LatencyInjectingDriver.class.getClassLoader(),
+            new Class<?>[] {Connection.class},
+            new InvocationHandler() {
+                private boolean closed = false;
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("close".equals(method.getName())) {
+                        synchronized (this) {
+                            if (!closed) {
+                                closed = true;
+                                openConnections.decrementAndGet();
+                            }
+                        }
+                    }
+                    Object result = delegate(connection, method, args);
+                    // Wrap the statements so that their execution is delayed
+                    if (result instanceof CallableStatement) {
+                        return wrapStatement(result, CallableStatement.class);
+                    } else if (result instanceof PreparedStatement) {
+                        return wrapStatement(result, PreparedStatement.class);
+                    } else if (result instanceof Statement) {
+                        return wrapStatement(result, Statement.class);
+                    }
+                    return result;
+                }
+            }
+        );
+    }
+
+    private static Object wrapStatement(final Object statement, Class<?> type) {
+        return Proxy.newProxyInstance(
+            LatencyInjectingDriver.class.getClassLoader(),
+            new Class<?>[] {type},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().startsWith("execute")) {
+                        long jitter = queryJitter;
+                        sleep(queryLatency + ((jitter > 0) ? (long)(random.nextDouble()*jitter) : 0));
+                    }
+                    return delegate(statement, method, args);
+                }
+            }
+        );
+    }
+
+    private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void sleep(long millis) throws SQLException {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while simulating latency.", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean acceptsURL(String url) throws SQLException {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    // Part of the Driver interface as of Java 7
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
@@ -0,0 +1,61 @@
+package com.kineticdata.bridgehub.adapter.sql.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Records the latencies (in nanoseconds) and errors of one operation type so
+ * that throughput and latency percentiles can be reported.
+ */
+public class LatencyStats {
+    private long[] latencies = new long[1024];
+    private int size = 0;
+    private long errors = 0;
+    private String firstError;
+
+    public synchronized void record(long latency) {
+        if (size == latencies.length) {
+            latencies = Arrays.copyOf(latencies, size*2);
+        }
+        latencies[size++] = latency;
+    }
+
+    public synchronized void recordError(Throwable error) {
+        errors++;
+        if (firstError == null) {
+            firstError = error.toString();
+        }
+    }
+
+    public synchronized int getCount() {
+        return size;
+    }
+
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    public synchronized String getFirstError() {
+        return firstError;
+    }
+
+    /**
+     * Returns a sorted copy of the recorded latencies.
+     */
+    public synchronized long[] getSortedLatencies() {
+        long[] sorted = Arrays.copyOf(latencies, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Returns the latency at the specified percentile (0-100) of the sorted
+     * latencies using the nearest rank method, or 0 if there are none.
+     */
+    public static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile/100.0*sorted.length);
+        return sorted[Math.min(Math.max(rank, 1), sorted.length)-1];
+    }
+}
@@ -0,0 +1,64 @@
+package com.kineticdata.bridgehub.adapter.sql.loadtest;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates and seeds the embedded H2 database used by the load test.  The
+ * records table has a primary key, an indexed category column, an unindexed
+ * status column and a CLOB column so that the workload exercises indexed
+ * lookups, larger scans and LOB materialization.
+ */
+public class LoadTestDatabase {
+    public static final String TABLE = "records";
+    public static final int CATEGORIES = 100;
+    public static final String[] STATUSES = new String[] {"open", "pending", "closed"};
+
+    private final String connectionString;
+
+    public LoadTestDatabase(String name) {
+        this.connectionString = "jdbc:h2:mem:"+name+";DB_CLOSE_DELAY=-1";
+    }
+
+    /** The H2 connection string (without the simulated latency). */
+    public String getConnectionString() {
+        return connectionString;
+    }
+
+    /**
+     * Creates the records table with the specified number of rows, each with a
+     * CLOB of lobLength characters.
+     */
+    public void seed(long rows, int lobLength) throws SQLException {
+        try {
+            Class.forName("org.h2.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("The H2 driver is not on the classpath.", e);
+        }
+        Connection connection = DriverManager.getConnection(connectionString, "sa", "");
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute("DROP TABLE IF EXISTS "+TABLE);
+                statement.execute("CREATE TABLE "+TABLE+" ("+
+                    "id BIGINT PRIMARY KEY, "+
+                    "name VARCHAR(64), "+
+                    "category VARCHAR(16), "+
+                    "status VARCHAR(16), "+
+                    "notes CLOB)");
+                statement.execute("INSERT INTO "+TABLE+" "+
+                    "SELECT X, 'Name '||X, 'category'||MOD(X, "+CATEGORIES+"), "+
+                    "CASEWHEN(MOD(X, 3) = 0, '"+STATUSES[0]+"', CASEWHEN(MOD(X, 3) = 1, '"+STATUSES[1]+"', '"+STATUSES[2]+"')), "+
+                    "REPEAT('x', "+lobLength+") "+
+                    "FROM SYSTEM_RANGE(1, "+rows+")");
+                statement.execute("CREATE INDEX "+TABLE+"_category ON "+TABLE+" (category)");
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
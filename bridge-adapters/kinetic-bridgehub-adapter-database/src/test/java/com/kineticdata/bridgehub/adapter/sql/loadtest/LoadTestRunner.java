@@ -0,0 +1,435 @@
+package com.kineticdata.bridgehub.adapter.sql.loadtest;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import com.kineticdata.bridgehub.adapter.sql.SqlAdapter;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mixed count, retrieve and search workload through the SqlAdapter
+ * against a seeded embedded database with simulated query latency, and writes
+ * the throughput, latency percentiles, connection usage and heap usage as JSON.
+ *
+ * The load test is run using the load-test profile, and is configured using
+ * system properties (defaults in parentheses):
+ *  - loadtest.rows (1000000) number of rows to seed
+ *  - loadtest.lobLength (256) length of the CLOB in each row
+ *  - loadtest.latencyMillis (2) latency added to each statement execution
+ *  - loadtest.latencyJitterMillis (0) maximum random latency added on top
+ *  - loadtest.connectLatencyMillis (20) latency added to each new connection
+ *  - loadtest.mode (concurrency) either "concurrency", where each worker
+ *    issues its next request as soon as the previous one completes, or "rate",
+ *    where requests arrive at a fixed rate regardless of how long they take
+ *  - loadtest.concurrency (200) number of workers
+ *  - loadtest.rate (1000) requests per second in rate mode
+ *  - loadtest.warmupSeconds (10) duration of the unrecorded warm up
+ *  - loadtest.durationSeconds (60) duration of the recorded run
+ *  - loadtest.mix (count=20,retrieve=50,search=30) relative operation weights
+ *  - loadtest.pageSize (25) search page size
+ *  - loadtest.output (standard out) file to write the JSON results to
+ *  - loadtest.adapter.PROPERTY additional adapter properties, for example
+ *    -Dloadtest.adapter."Max Idle Connections"=50
+ *
+ * In rate mode latencies are measured from when each request was scheduled to
+ * start, so time spent queued behind slow requests is included.
+ */
+public class LoadTestRunner {
+    public static final String PREFIX = "loadtest.";
+    public static final String ADAPTER_PREFIX = "loadtest.adapter.";
+
+    enum Operation {COUNT, RETRIEVE, SEARCH}
+
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private final SqlAdapter adapter;
+    private final long rows;
+    private final String mode;
+    private final int concurrency;
+    private final int rate;
+    private final int pageSize;
+    private final Operation[] operations = Operation.values();
+    private final int[] cumulativeWeights = new int[operations.length];
+
+    public LoadTestRunner(SqlAdapter adapter, long rows, String mode, int concurrency, int rate,
+        int pageSize, String mix
+    ) {
+        this.adapter = adapter;
+        this.rows = rows;
+        this.mode = mode;
+        this.concurrency = concurrency;
+        this.rate = rate;
+        this.pageSize = pageSize;
+
+        // Parse the operation mix, for example "count=20,retrieve=50,search=30"
+        Map<Operation,Integer> weights = new LinkedHashMap<Operation,Integer>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.valueOf(parts[1].trim()));
+        }
+        int total = 0;
+        for (int i=0; i<operations.length; i++) {
+            Integer weight = weights.get(operations[i]);
+            total += (weight == null) ? 0 : weight;
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The operation mix does not include any operations: "+mix);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long rows = Long.getLong(PREFIX+"rows", 1000000L);
+        int lobLength = Integer.getInteger(PREFIX+"lobLength", 256);
+        long latency = Long.getLong(PREFIX+"latencyMillis", 2L);
+        long jitter = Long.getLong(PREFIX+"latencyJitterMillis", 0L);
+        long connectLatency = Long.getLong(PREFIX+"connectLatencyMillis", 20L);
+        String mode = System.getProperty(PREFIX+"mode", "concurrency");
+        int concurrency = Integer.getInteger(PREFIX+"concurrency", 200);
+        int rate = Integer.getInteger(PREFIX+"rate", 1000);
+        int warmupSeconds = Integer.getInteger(PREFIX+"warmupSeconds", 10);
+        int durationSeconds = Integer.getInteger(PREFIX+"durationSeconds", 60);
+        String mix = System.getProperty(PREFIX+"mix", "count=20,retrieve=50,search=30");
+        int pageSize = Integer.getInteger(PREFIX+"pageSize", 25);
+        String output = System.getProperty(PREFIX+"output");
+        if (!"concurrency".equals(mode) && !"rate".equals(mode)) {
+            throw new IllegalArgumentException("Invalid "+PREFIX+"mode '"+mode+"', expected 'concurrency' or 'rate'.");
+        }
+
+        // Seed the database
+        System.err.println("Seeding "+rows+" rows...");
+        LoadTestDatabase database = new LoadTestDatabase("loadtest");
+        database.seed(rows, lobLength);
+        LatencyInjectingDriver.configure(latency, jitter, connectLatency);
+
+        // Configure the adapter
+        Map<String,String> properties = new LinkedHashMap<String,String>();
+        properties.put(SqlAdapter.Properties.ADAPTER_CLASS, LatencyInjectingDriver.class.getName());
+        properties.put(SqlAdapter.Properties.CONNECTION_STRING,
+            LatencyInjectingDriver.URL_PREFIX+database.getConnectionString());
+        properties.put(SqlAdapter.Properties.USERNAME, "sa");
+        properties.put(SqlAdapter.Properties.PASSWORD, "");
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(ADAPTER_PREFIX)) {
+                properties.put(name.substring(ADAPTER_PREFIX.length()), System.getProperty(name));
+            }
+        }
+        SqlAdapter adapter = new SqlAdapter();
+        adapter.setProperties(properties);
+        adapter.initialize();
+
+        try {
+            LoadTestRunner runner = new LoadTestRunner(adapter, rows, mode, concurrency, rate, pageSize, mix);
+
+            // Warm up without recording so that the JIT, caches and any
+            // connection pool are in a steady state
+            System.err.println("Warming up for "+warmupSeconds+" seconds...");
+            runner.run(warmupSeconds, null);
+            LatencyInjectingDriver.resetConnectionStatistics();
+
+            // Sample the heap while the recorded run executes
+            final AtomicLong peakHeap = new AtomicLong();
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+            sampler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+                    long peak;
+                    while (used > (peak = peakHeap.get()) && !peakHeap.compareAndSet(peak, used)) {}
+                }
+            }, 0, 100, TimeUnit.MILLISECONDS);
+            long gcCountBefore = getGcCount();
+            long gcTimeBefore = getGcTime();
+
+            System.err.println("Running for "+durationSeconds+" seconds...");
+            Map<Operation,LatencyStats> stats = new LinkedHashMap<Operation,LatencyStats>();
+            for (Operation operation : Operation.values()) {
+                stats.put(operation, new LatencyStats());
+            }
+            long startTime = System.nanoTime();
+            runner.run(durationSeconds, stats);
+            long elapsed = System.nanoTime() - startTime;
+            sampler.shutdownNow();
+
+            // Build the results
+            Map<String,Object> configuration = new LinkedHashMap<String,Object>();
+            configuration.put("rows", rows);
+            configuration.put("lobLength", lobLength);
+            configuration.put("latencyMillis", latency);
+            configuration.put("latencyJitterMillis", jitter);
+            configuration.put("connectLatencyMillis", connectLatency);
+            configuration.put("mode", mode);
+            configuration.put("concurrency", concurrency);
+            if ("rate".equals(mode)) {
+                configuration.put("rate", rate);
+            }
+            configuration.put("durationSeconds", durationSeconds);
+            configuration.put("mix", mix);
+            configuration.put("pageSize", pageSize);
+            configuration.put("adapterProperties", withoutPassword(properties));
+
+            Map<String,Object> results = new LinkedHashMap<String,Object>();
+            results.put("configuration", configuration);
+            results.put("elapsedSeconds", elapsed/1e9);
+            long totalRequests = 0;
+            Map<String,Object> operations = new LinkedHashMap<String,Object>();
+            for (Map.Entry<Operation,LatencyStats> entry : stats.entrySet()) {
+                LatencyStats operationStats = entry.getValue();
+                long[] sorted = operationStats.getSortedLatencies();
+                totalRequests += sorted.length;
+                Map<String,Object> operation = new LinkedHashMap<String,Object>();
+                operation.put("requests", sorted.length);
+                operation.put("errors", operationStats.getErrors());
+                operation.put("firstError", operationStats.getFirstError());
+                operation.put("throughputPerSecond", sorted.length/(elapsed/1e9));
+                Map<String,Object> latencies = new LinkedHashMap<String,Object>();
+                latencies.put("p50", LatencyStats.percentile(sorted, 50)/1e6);
+                latencies.put("p99", LatencyStats.percentile(sorted, 99)/1e6);
+                latencies.put("p999", LatencyStats.percentile(sorted, 99.9)/1e6);
+                latencies.put("max", (sorted.length == 0) ? 0 : sorted[sorted.length-1]/1e6);
+                operation.put("latencyMillis", latencies);
+                operations.put(entry.getKey().name().toLowerCase(), operation);
+            }
+            results.put("throughputPerSecond", totalRequests/(elapsed/1e9));
+            results.put("operations", operations);
+            Map<String,Object> connections = new LinkedHashMap<String,Object>();
+            connections.put("peakOpen", LatencyInjectingDriver.getPeakOpenConnections());
+            connections.put("opened", LatencyInjectingDriver.getOpenedConnections());
+            connections.put("openedPerSecond", LatencyInjectingDriver.getOpenedConnections()/(elapsed/1e9));
+            results.put("connections", connections);
+            Map<String,Object> heap = new LinkedHashMap<String,Object>();
+            heap.put("peakUsedBytes", peakHeap.get());
+            heap.put("maxBytes", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax());
+            heap.put("gcCollections", getGcCount()-gcCountBefore);
+            heap.put("gcTimeMillis", getGcTime()-gcTimeBefore);
+            results.put("heap", heap);
+
+            // Write the results
+            PrintWriter writer = (output == null)
+                ? new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"))
+                : new PrintWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"));
+            try {
+                writer.println(toJson(results));
+            } finally {
+                writer.flush();
+                if (output != null) {
+                    writer.close();
+                }
+            }
+        } finally {
+            adapter.destroy();
+        }
+    }
+
+    /**
+     * Runs the workload for the specified number of seconds, recording the
+     * latencies to the stats if they are not null.
+     */
+    public void run(int seconds, final Map<Operation,LatencyStats> stats) throws InterruptedException {
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        if ("rate".equals(mode)) {
+            ThreadPoolExecutor workers = new ThreadPoolExecutor(concurrency, concurrency,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+            long interval = TimeUnit.SECONDS.toNanos(1)/rate;
+            long start = System.nanoTime();
+            for (long n=0; ; n++) {
+                final long scheduled = start + n*interval;
+                if (scheduled >= end) {
+                    break;
+                }
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(scheduled, stats);
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.HOURS);
+        } else {
+            ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+            for (int i=0; i<concurrency; i++) {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (System.nanoTime() < end) {
+                            execute(System.nanoTime(), stats);
+                        }
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.HOURS);
+        }
+    }
+
+    /**
+     * Executes a randomly selected operation, measuring its latency from the
+     * specified start time.
+     */
+    private void execute(long startTime, Map<Operation,LatencyStats> stats) {
+        Random random = RANDOM.get();
+        int choice = random.nextInt(cumulativeWeights[cumulativeWeights.length-1]);
+        Operation operation = operations[0];
+        for (int i=0; i<cumulativeWeights.length; i++) {
+            if (choice < cumulativeWeights[i]) {
+                operation = operations[i];
+                break;
+            }
+        }
+        try {
+            execute(operation, random);
+            if (stats != null) {
+                stats.get(operation).record(System.nanoTime() - startTime);
+            }
+        } catch (Exception e) {
+            if (stats != null) {
+                stats.get(operation).recordError(e);
+            }
+        }
+    }
+
+    private void execute(Operation operation, Random random) throws BridgeError {
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure(LoadTestDatabase.TABLE);
+        Map<String,String> parameters = new LinkedHashMap<String,String>();
+        Map<String,String> metadata = new LinkedHashMap<String,String>();
+        String category = "category"+random.nextInt(LoadTestDatabase.CATEGORIES);
+        switch (operation) {
+            case COUNT:
+                request.setFields(Arrays.asList("id"));
+                request.setQuery("category = <%=parameter[\"Category\"]%>");
+                parameters.put("Category", category);
+                break;
+            case RETRIEVE:
+                request.setFields(Arrays.asList("id", "name", "category", "status", "notes"));
+                request.setQuery("id = <%=parameter[\"Id\"]%>");
+                parameters.put("Id", String.valueOf(1 + (long)(random.nextDouble()*rows)));
+                break;
+            case SEARCH:
+                request.setFields(Arrays.asList("id", "name", "status", "notes"));
+                request.setQuery("category = <%=parameter[\"Category\"]%> AND status = <%=parameter[\"Status\"]%>");
+                parameters.put("Category", category);
+                parameters.put("Status", LoadTestDatabase.STATUSES[random.nextInt(LoadTestDatabase.STATUSES.length)]);
+                metadata.put("pageSize", String.valueOf(pageSize));
+                metadata.put("pageNumber", String.valueOf(1 + random.nextInt(5)));
+                break;
+        }
+        request.setParameters(parameters);
+        request.setMetadata(metadata);
+        switch (operation) {
+            case COUNT:
+                adapter.count(request);
+                break;
+            case RETRIEVE:
+                adapter.retrieve(request);
+                break;
+            case SEARCH:
+                adapter.search(request);
+                break;
+        }
+    }
+
+    private static Map<String,String> withoutPassword(Map<String,String> properties) {
+        Map<String,String> result = new LinkedHashMap<String,String>(properties);
+        result.remove(SqlAdapter.Properties.PASSWORD);
+        result.remove(SqlAdapter.Properties.DATASOURCES);
+        return result;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(bean.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long getGcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(bean.getCollectionTime(), 0);
+        }
+        return time;
+    }
+
+    /**
+     * Serializes maps, lists, numbers and strings as JSON.
+     */
+    static String toJson(Object value) {
+        StringBuilder builder = new StringBuilder();
+        appendJson(builder, value);
+        return builder.toString();
+    }
+
+    private static void appendJson(StringBuilder builder, Object value) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof Map) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<?,?> entry : ((Map<?,?>) value).entrySet()) {
+                if (!first) {builder.append(',');}
+                first = false;
+                appendJson(builder, String.valueOf(entry.getKey()));
+                builder.append(':');
+                appendJson(builder, entry.getValue());
+            }
+            builder.append('}');
+        } else if (value instanceof List) {
+            builder.append('[');
+            boolean first = true;
+            for (Object item : (List<?>) value) {
+                if (!first) {builder.append(',');}
+                first = false;
+                appendJson(builder, item);
+            }
+            builder.append(']');
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            builder.append((Double.isNaN(number) || Double.isInfinite(number)) ? "null" : String.format(Locale.ROOT, "%.3f", number));
+        } else if (value instanceof Number || value instanceof Boolean) {
+            builder.append(value);
+        } else {
+            builder.append('"');
+            String string = value.toString();
+            for (int i=0; i<string.length(); i++) {
+                char c = string.charAt(i);
+                if (c == '"' || c == '\\') {
+                    builder.append('\\').append(c);
+                } else if (c < 0x20) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+    }
+}